@@ -8,20 +8,42 @@ import net.minecraft.util.text.TextFormatting;
 import net.minecraftforge.event.entity.player.PlayerEvent;
 import net.minecraftforge.fml.server.ServerLifecycleHooks;
 
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class ErrorHandler {
 
-    private static Set<String> errors = new HashSet<>();
+    // The errors for every rule file. Errors that don't belong to a rule file use the key ""
+    private static final Map<String, Set<String>> errors = new HashMap<>();
+    // The rule file that is being read on this thread
+    private static final ThreadLocal<String> currentFile = ThreadLocal.withInitial(() -> "");
 
-    public static void clearErrors() {
-        errors.clear();
+    // Clear the errors that don't belong to a rule file. The errors of a rule file are only
+    // cleared when that file is actually read again (a file that didn't change keeps its errors)
+    public static synchronized void clearErrors() {
+        errors.remove("");
+    }
+
+    public static synchronized void clearErrors(String file) {
+        errors.remove(file);
+    }
+
+    // The errors that follow (on this thread) belong to this rule file
+    public static void startFile(String file) {
+        currentFile.set(file);
+    }
+
+    public static void endFile() {
+        currentFile.set("");
     }
 
     // Publish an error and notify all players of that error
     public static void error(String message) {
-        errors.add(message);
+        synchronized (ErrorHandler.class) {
+            errors.computeIfAbsent(currentFile.get(), f -> new LinkedHashSet<>()).add(message);
+        }
         InControl.setup.getLogger().error(message);
         // Notify all logged in players
         MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
@@ -32,9 +54,11 @@ public class ErrorHandler {
         }
     }
 
-    public static void onPlayerJoinWorld(PlayerEvent.PlayerLoggedInEvent event) {
-        for (String error : errors) {
-            event.getPlayer().sendMessage(new StringTextComponent(TextFormatting.RED + "InControl Error: " + TextFormatting.GOLD + error), Util.NIL_UUID);
+    public static synchronized void onPlayerJoinWorld(PlayerEvent.PlayerLoggedInEvent event) {
+        for (Set<String> messages : errors.values()) {
+            for (String error : messages) {
+                event.getPlayer().sendMessage(new StringTextComponent(TextFormatting.RED + "InControl Error: " + TextFormatting.GOLD + error), Util.NIL_UUID);
+            }
         }
     }
 }
@@ -5,7 +5,10 @@ import mcjty.incontrol.data.DataStorage;
 import mcjty.incontrol.data.Statistics;
 import mcjty.incontrol.rules.*;
 import mcjty.incontrol.spawner.SpawnerSystem;
+import mcjty.incontrol.tools.cache.StructureCache;
+import mcjty.incontrol.tools.rules.EventContext;
 import net.minecraft.entity.LivingEntity;
+import net.minecraft.entity.MobEntity;
 import net.minecraft.entity.item.ItemEntity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.ItemStack;
@@ -14,12 +17,16 @@ import net.minecraft.world.World;
 import net.minecraft.world.biome.MobSpawnInfo;
 import net.minecraftforge.event.RegisterCommandsEvent;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.EntityEvent;
 import net.minecraftforge.event.entity.EntityJoinWorldEvent;
+import net.minecraftforge.event.entity.EntityLeaveWorldEvent;
+import net.minecraftforge.event.entity.living.LivingDeathEvent;
 import net.minecraftforge.event.entity.living.LivingDropsEvent;
 import net.minecraftforge.event.entity.living.LivingExperienceDropEvent;
 import net.minecraftforge.event.entity.living.LivingSpawnEvent;
 import net.minecraftforge.event.entity.living.ZombieEvent;
 import net.minecraftforge.event.world.BiomeLoadingEvent;
+import net.minecraftforge.event.world.ChunkEvent;
 import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.eventbus.api.Event;
 import net.minecraftforge.eventbus.api.EventPriority;
@@ -44,7 +51,6 @@ public class ForgeEventHandlers {
 
     @SubscribeEvent(priority = EventPriority.LOWEST)
     public void onEntityJoinWorld(EntityJoinWorldEvent event) {
-        int i = 0;
         if (!(event.getEntity() instanceof LivingEntity)) {
             return;
         }
@@ -54,8 +60,21 @@ public class ForgeEventHandlers {
         if (event.getWorld().isClientSide) {
             return;
         }
-        for (SpawnRule rule : RulesManager.getFilteredRules(event.getWorld())) {
-            if (rule.isOnJoin() && rule.match(event)) {
+        handleJoinRules(event);
+        // Only mobs that actually make it into the world are counted. This runs at the lowest
+        // priority so that denials by other mods are also taken into account
+        if (!event.isCanceled()) {
+            InControl.setup.cache.registerSpawn(event.getWorld(), event.getEntity());
+        }
+    }
+
+    private void handleJoinRules(EntityJoinWorldEvent event) {
+        EventContext ctx = new EventContext(event, SpawnRule.EVENT_QUERY_JOIN);
+        SpawnRuleIndex.Bucket rules = RulesManager.getJoinRules(event.getWorld()).getRules(event.getEntity().getType());
+        for (int r = 0; r < rules.size(); r++) {
+            SpawnRule rule = rules.getRule(r);
+            int i = rules.getIndex(r);
+            if (rule.match(ctx)) {
                 Event.Result result = rule.getResult();
                 if (debug) {
                     InControl.setup.getLogger().log(Level.INFO, "Join Rule " + i + ": " + result
@@ -73,18 +92,52 @@ public class ForgeEventHandlers {
                     return;
                 }
             }
-            i++;
         }
     }
 
-    @SubscribeEvent(priority = EventPriority.HIGHEST)
-    public void onEntityJoinWorldLast(EntityJoinWorldEvent event) {
-        // We register spawns in a high priority event so that we take things that other mods
-        // do into account
-        if (!event.getWorld().isClientSide() && event.getEntity() instanceof LivingEntity) {
-            if (!(event.getEntity() instanceof PlayerEntity)) {
-                InControl.setup.cache.registerSpawn(event.getWorld(), event.getEntity().getType());
-            }
+    @SubscribeEvent
+    public void onEntityLeaveWorld(EntityLeaveWorldEvent event) {
+        if (!event.getWorld().isClientSide() && !(event.getEntity() instanceof PlayerEntity)) {
+            InControl.setup.cache.registerDespawn(event.getWorld(), event.getEntity());
+        }
+    }
+
+    @SubscribeEvent
+    public void onEnteringChunk(EntityEvent.EnteringChunk event) {
+        // Also fired when a mob moves to another section in the same chunk
+        if (event.getEntity() instanceof MobEntity && !event.getEntity().level.isClientSide()) {
+            InControl.setup.cache.registerMove(event.getEntity().level, event.getEntity());
+        }
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public void onLivingDeath(LivingDeathEvent event) {
+        // Dead mobs linger in the world for their death animation. Stop counting them right away
+        if (!event.isCanceled() && !event.getEntity().level.isClientSide() && !(event.getEntity() instanceof PlayerEntity)) {
+            InControl.setup.cache.registerDespawn(event.getEntity().level, event.getEntity());
+        }
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event) {
+        if (!event.getWorld().isClientSide()) {
+            InControl.setup.cache.clear(event.getWorld());
+            StructureCache.CACHE.onWorldUnload(event.getWorld());
+        }
+    }
+
+    @SubscribeEvent
+    public void onChunkLoad(ChunkEvent.Load event) {
+        if (event.getWorld() != null && !event.getWorld().isClientSide()) {
+            StructureCache.CACHE.onChunkLoad(event.getWorld(), event.getChunk());
+            SpawnerSystem.onChunkLoad(event.getWorld(), event.getChunk());
+        }
+    }
+
+    @SubscribeEvent
+    public void onChunkUnload(ChunkEvent.Unload event) {
+        if (event.getWorld() != null && !event.getWorld().isClientSide()) {
+            StructureCache.CACHE.onChunkUnload(event.getWorld(), event.getChunk());
         }
     }
 
@@ -92,7 +145,7 @@ public class ForgeEventHandlers {
     public void onWorldTick(TickEvent.WorldTickEvent event) {
         if (event.phase == TickEvent.Phase.START && !event.world.isClientSide) {
             // For every world tick we reset the cache
-            InControl.setup.cache.reset(event.world);
+            InControl.setup.cache.tick(event.world);
 
             if (!event.world.players().isEmpty()) {
                 // If a world has players we do mob spawning in it
@@ -101,6 +154,7 @@ public class ForgeEventHandlers {
 
             if (event.world.dimension().equals(World.OVERWORLD)) {
                 DataStorage.getData(event.world).tick(event.world);
+                Statistics.tick();
             }
         }
     }
@@ -108,9 +162,14 @@ public class ForgeEventHandlers {
 
     @SubscribeEvent(priority = EventPriority.LOWEST)
     public void onEntitySpawnEvent(LivingSpawnEvent.CheckSpawn event) {
-        int i = 0;
-        for (SpawnRule rule : RulesManager.getFilteredRules(event.getEntity().getCommandSenderWorld())) {
-            if (rule.match(event)) {
+        // Shared by all rules so that biome, light, nearest player, ... are only looked up once per spawn attempt
+        EventContext ctx = new EventContext(event, SpawnRule.EVENT_QUERY);
+        // Only the rules that can possibly match this type of mob
+        SpawnRuleIndex.Bucket rules = RulesManager.getCheckSpawnRules(event.getEntity().getCommandSenderWorld()).getRules(event.getEntity().getType());
+        for (int r = 0; r < rules.size(); r++) {
+            SpawnRule rule = rules.getRule(r);
+            int i = rules.getIndex(r);
+            if (rule.match(ctx)) {
                 Event.Result result = rule.getResult();
                 if (debug) {
                     InControl.setup.getLogger().log(Level.INFO, "Rule " + i + ": " + result
@@ -131,7 +190,6 @@ public class ForgeEventHandlers {
                     return;
                 }
             }
-            i++;
         }
     }
 
@@ -162,7 +220,7 @@ public class ForgeEventHandlers {
     public void onBiomeLoadingEvent(BiomeLoadingEvent event) {
         // On 1.16.3 potentialspawn alone can't add spawns that are not supported by the biome. So we need to add all
         // possible potential spawns to all possible biomes
-        for (PotentialSpawnRule rule : RulesManager.potentialSpawnRules) {
+        for (PotentialSpawnRule rule : RulesManager.getPotentialSpawnRules()) {
             List<MobSpawnInfo.Spawners> spawnEntries = rule.getSpawnEntries();
             for (MobSpawnInfo.Spawners entry : spawnEntries) {
                 event.getSpawns().addSpawn(entry.type.getCategory(), entry);
@@ -173,7 +231,7 @@ public class ForgeEventHandlers {
     @SubscribeEvent(priority = EventPriority.LOWEST)
     public void onPotentialSpawns(WorldEvent.PotentialSpawns event) {
         int i = 0;
-        for (PotentialSpawnRule rule : RulesManager.potentialSpawnRules) {
+        for (PotentialSpawnRule rule : RulesManager.getPotentialSpawnRules()) {
             if (rule.match(event)) {
 
                 // First remove mob entries if needed
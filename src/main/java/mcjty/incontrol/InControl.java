@@ -1,11 +1,14 @@
 package mcjty.incontrol;
 
 
+import mcjty.incontrol.rules.RuleFileWatcher;
+import mcjty.incontrol.setup.Config;
 import mcjty.incontrol.setup.ModSetup;
 import mcjty.incontrol.tools.cache.StructureCache;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
+import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
 import net.minecraftforge.fml.event.server.FMLServerStoppedEvent;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 
@@ -17,8 +20,15 @@ public class InControl {
     public static ModSetup setup = new ModSetup();
 
     public InControl() {
+        Config.register();
         FMLJavaModLoadingContext.get().getModEventBus().addListener((FMLCommonSetupEvent event) -> setup.init());
         MinecraftForge.EVENT_BUS.addListener((FMLServerStoppedEvent event) -> StructureCache.CACHE.clean());
+        MinecraftForge.EVENT_BUS.addListener((FMLServerStartedEvent event) -> {
+            if (Config.AUTO_RELOAD.get()) {
+                RuleFileWatcher.start(event.getServer(), Config.AUTO_RELOAD_DELAY.get());
+            }
+        });
+        MinecraftForge.EVENT_BUS.addListener((FMLServerStoppedEvent event) -> RuleFileWatcher.stop());
         MinecraftForge.EVENT_BUS.addListener(ErrorHandler::onPlayerJoinWorld);
     }
 }
@@ -8,13 +8,9 @@ import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import mcjty.incontrol.ErrorHandler;
 import mcjty.incontrol.InControl;
 import mcjty.incontrol.rules.RulesManager;
-import mcjty.incontrol.spawner.SpawnerSystem;
 import net.minecraft.command.CommandSource;
 import net.minecraft.command.Commands;
-import net.minecraft.entity.player.ServerPlayerEntity;
-import net.minecraft.util.Util;
 import net.minecraft.util.text.StringTextComponent;
-import net.minecraft.util.text.TextFormatting;
 
 public class CmdReload implements Command<CommandSource> {
 
@@ -28,18 +24,17 @@ public class CmdReload implements Command<CommandSource> {
 
     @Override
     public int run(CommandContext<CommandSource> context) throws CommandSyntaxException {
-        ServerPlayerEntity player = context.getSource().getPlayerOrException();
+        // Also works from the console or a command block
+        CommandSource source = context.getSource();
         ErrorHandler.clearErrors();
-        if (player != null) {
-            player.sendMessage(new StringTextComponent("Reloaded InControl rules"), Util.NIL_UUID);
-            try {
-                RulesManager.reloadRules();
-                SpawnerSystem.reloadRules();
-            } catch (Exception e) {
+        RulesManager.reloadRulesAsync(source.getServer()).whenComplete((v, e) -> {
+            if (e != null) {
                 InControl.setup.getLogger().error("Error reloading rules!", e);
-                player.sendMessage(new StringTextComponent(TextFormatting.RED + "Error: " + e.getLocalizedMessage()), Util.NIL_UUID);
+                source.sendFailure(new StringTextComponent("Error: " + e.getLocalizedMessage()));
+            } else {
+                source.sendSuccess(new StringTextComponent("Reloaded InControl rules"), false);
             }
-        }
+        });
         return 0;
     }
 }
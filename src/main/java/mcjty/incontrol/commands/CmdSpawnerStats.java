@@ -0,0 +1,32 @@
+package mcjty.incontrol.commands;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.builder.ArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import mcjty.incontrol.data.Statistics;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+import net.minecraft.util.text.StringTextComponent;
+
+public class CmdSpawnerStats {
+
+    public static ArgumentBuilder<CommandSource, ?> register(CommandDispatcher<CommandSource> dispatcher) {
+        return Commands.literal("spawnerstats")
+                .requires(cs -> cs.hasPermission(1))
+                .then(Commands.literal("write").executes(CmdSpawnerStats::writeStats))
+                .executes(CmdSpawnerStats::showStats);
+    }
+
+    private static int showStats(CommandContext<CommandSource> context) {
+        for (String line : Statistics.getSpawnerStats()) {
+            context.getSource().sendSuccess(new StringTextComponent(line), false);
+        }
+        return 0;
+    }
+
+    private static int writeStats(CommandContext<CommandSource> context) {
+        Statistics.writeSpawnerStats();
+        context.getSource().sendSuccess(new StringTextComponent("Spawner statistics written"), false);
+        return 0;
+    }
+}
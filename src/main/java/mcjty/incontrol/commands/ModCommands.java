@@ -16,6 +16,7 @@ public class ModCommands {
                         .then(CmdReload.register(dispatcher))
                         .then(CmdShowMobs.register(dispatcher))
                         .then(CmdShowStats.register(dispatcher))
+                        .then(CmdSpawnerStats.register(dispatcher))
                         .then(CmdClearStats.register(dispatcher))
                         .then(CmdList.register(dispatcher))
                         .then(CmdInfo.register(dispatcher))
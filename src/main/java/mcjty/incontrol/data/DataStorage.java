@@ -89,7 +89,7 @@ public class DataStorage extends WorldSavedData {
 
     private void tickPhases(World world) {
         boolean dirty = false;
-        for (PhaseRule rule : RulesManager.phaseRules) {
+        for (PhaseRule rule : RulesManager.getPhaseRules()) {
             if (rule.match(world)) {
                 if (phases.add(rule.getName())) {
                     dirty = true;
@@ -102,7 +102,7 @@ public class DataStorage extends WorldSavedData {
         }
         if (dirty) {
             // We need to reevaluate the rules
-            RulesManager.onPhaseChange();
+            RulesManager.onPhaseChange(phases);
         }
     }
 
@@ -1,21 +1,136 @@
 package mcjty.incontrol.data;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.ints.IntList;
 import mcjty.incontrol.InControl;
+import mcjty.incontrol.rules.RulesManager;
+import mcjty.incontrol.setup.Config;
+import mcjty.incontrol.tools.cache.StructureCache;
+import net.minecraft.util.Util;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 public class Statistics {
 
     private static final List<SpawnStat> SPAWN_STATS = new ArrayList<>();
     private static final List<SpawnerStat> SPAWNER_STATS = new ArrayList<>();
 
-    public static void addSpawnerStat(int rule) {
+    // Reasons why a spawner attempt failed
+    public enum SpawnerFailure {
+        NO_POSITION,
+        NO_CHUNK,
+        NO_MOB,
+        COLLISION,
+        FORGE_DENY,
+        SPAWN_RULES,
+        CAP
+    }
+
+    private static int dumpCounter = 0;
+
+    private static SpawnerStat getSpawnerStat(int rule) {
         while (rule >= SPAWNER_STATS.size()) {
             SPAWNER_STATS.add(new SpawnerStat());
         }
-        SpawnerStat stat = SPAWNER_STATS.get(rule);
-        stat.counter++;
+        return SPAWNER_STATS.get(rule);
+    }
+
+    public static void addSpawnerStat(int rule) {
+        getSpawnerStat(rule).counter++;
+    }
+
+    public static void addSpawnerAttempt(int rule) {
+        getSpawnerStat(rule).attempts++;
+    }
+
+    public static void addSpawnerFailure(int rule, SpawnerFailure failure) {
+        if (rule >= 0) {
+            getSpawnerStat(rule).failures[failure.ordinal()]++;
+        }
+    }
+
+    public static void addSpawnerTime(int rule, long nanos) {
+        getSpawnerStat(rule).nanos += nanos;
+    }
+
+    public static List<String> getSpawnerStats() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0 ; i < SPAWNER_STATS.size() ; i++) {
+            SpawnerStat stat = SPAWNER_STATS.get(i);
+            StringBuilder builder = new StringBuilder("Rule " + i + ": " + stat.counter + " spawned, " + stat.attempts + " attempts, "
+                    + (stat.nanos / 1000000) + "ms");
+            for (SpawnerFailure failure : SpawnerFailure.values()) {
+                int cnt = stat.failures[failure.ordinal()];
+                if (cnt > 0) {
+                    builder.append(", ").append(failure.name().toLowerCase()).append(' ').append(cnt);
+                }
+            }
+            lines.add(builder.toString());
+        }
+        return lines;
+    }
+
+    // Called every tick. Writes the spawner statistics to disk at the configured interval
+    public static void tick() {
+        int interval = Config.SPAWNER_STATS_INTERVAL.get();
+        if (interval <= 0) {
+            return;
+        }
+        dumpCounter++;
+        if (dumpCounter >= interval * 20) {
+            dumpCounter = 0;
+            writeSpawnerStats();
+        }
+    }
+
+    // The statistics are collected here and written on an io thread. They are not written in the
+    // incontrol directory because the rule watcher ('autoReload') watches that
+    public static void writeSpawnerStats() {
+        File directory = new File(RulesManager.getPath() + File.separator + "incontrol-stats");
+        StringBuilder csv = new StringBuilder("rule,spawned,attempts,nanos");
+        for (SpawnerFailure failure : SpawnerFailure.values()) {
+            csv.append(',').append(failure.name().toLowerCase());
+        }
+        csv.append('\n');
+        JsonArray array = new JsonArray();
+        for (int i = 0 ; i < SPAWNER_STATS.size() ; i++) {
+            SpawnerStat stat = SPAWNER_STATS.get(i);
+            csv.append(i).append(',').append(stat.counter).append(',').append(stat.attempts).append(',').append(stat.nanos);
+            JsonObject object = new JsonObject();
+            object.addProperty("rule", i);
+            object.addProperty("spawned", stat.counter);
+            object.addProperty("attempts", stat.attempts);
+            object.addProperty("nanos", stat.nanos);
+            JsonObject failures = new JsonObject();
+            for (SpawnerFailure failure : SpawnerFailure.values()) {
+                csv.append(',').append(stat.failures[failure.ordinal()]);
+                failures.addProperty(failure.name().toLowerCase(), stat.failures[failure.ordinal()]);
+            }
+            object.add("failures", failures);
+            csv.append('\n');
+            array.add(object);
+        }
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        String json = gson.toJson(array);
+        String text = csv.toString();
+        Util.ioPool().execute(() -> {
+            try {
+                Files.createDirectories(directory.toPath());
+                Files.write(new File(directory, "spawnerstats.csv").toPath(), text.getBytes(StandardCharsets.UTF_8));
+                Files.write(new File(directory, "spawnerstats.json").toPath(), json.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                InControl.setup.getLogger().error("Error writing spawner statistics", e);
+            }
+        });
     }
 
     public static void addSpawnStat(int rule, boolean deny) {
@@ -27,22 +142,45 @@ public class Statistics {
         stat.deny = deny;
     }
 
+    // Called after spawn.json was reloaded. For every new rule 'previous' has the index that the rule
+    // had before or -1 if it is a new rule. Statistics of rules that were removed are dropped
+    public static void remapSpawnStats(IntList previous) {
+        remap(SPAWN_STATS, previous, SpawnStat::new);
+    }
+
+    // Same as remapSpawnStats but for spawner.json
+    public static void remapSpawnerStats(IntList previous) {
+        remap(SPAWNER_STATS, previous, SpawnerStat::new);
+    }
+
+    private static <T> void remap(List<T> stats, IntList previous, Supplier<T> factory) {
+        List<T> remapped = new ArrayList<>(previous.size());
+        for (int i = 0; i < previous.size(); i++) {
+            int idx = previous.getInt(i);
+            remapped.add(idx >= 0 && idx < stats.size() ? stats.get(idx) : factory.get());
+        }
+        stats.clear();
+        stats.addAll(remapped);
+    }
+
     public static void clear() {
         SPAWN_STATS.clear();
         SPAWNER_STATS.clear();
+        StructureCache.CACHE.clearStats();
     }
 
     public static void dump() {
         InControl.setup.getLogger().info("### Spawner ###");
-        for (int i = 0 ; i < SPAWNER_STATS.size() ; i++) {
-            SpawnerStat stat = SPAWNER_STATS.get(i);
-            InControl.setup.getLogger().info("Rule " + i + " spawned " + stat.counter + " mobs");
+        for (String line : getSpawnerStats()) {
+            InControl.setup.getLogger().info(line);
         }
         InControl.setup.getLogger().info("### Spawn ###");
         for (int i = 0; i < SPAWN_STATS.size() ; i++) {
             SpawnStat stat = SPAWN_STATS.get(i);
             InControl.setup.getLogger().info("Rule " + i + " fired " + stat.counter + " times (" + (stat.deny ? "deny)": "allow)"));
         }
+        InControl.setup.getLogger().info("### Cache ###");
+        StructureCache.CACHE.dumpStats(InControl.setup.getLogger());
     }
 
     private static class SpawnStat {
@@ -52,5 +190,8 @@ public class Statistics {
 
     private static class SpawnerStat {
         private int counter;
+        private int attempts;
+        private long nanos;
+        private final int[] failures = new int[SpawnerFailure.values().length];
     }
 }
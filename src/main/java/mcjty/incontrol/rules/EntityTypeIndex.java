@@ -0,0 +1,70 @@
+package mcjty.incontrol.rules;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.entity.EntityType;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.util.Arrays;
+
+/**
+ * Dense numbering of all entity types and mod namespaces so that counters can be
+ * kept in plain int arrays. The index is built once from the registry at startup and
+ * is only read after that (also from world generation threads). Types that are not in
+ * the registry at that time get -1
+ */
+public class EntityTypeIndex {
+
+    private static final Reference2IntOpenHashMap<EntityType<?>> TYPE_INDEX = new Reference2IntOpenHashMap<>();
+    private static final Object2IntOpenHashMap<String> MOD_INDEX = new Object2IntOpenHashMap<>();
+    private static int[] modForType = new int[256];
+
+    static {
+        TYPE_INDEX.defaultReturnValue(-1);
+        MOD_INDEX.defaultReturnValue(-1);
+    }
+
+    public static void init() {
+        for (EntityType<?> type : ForgeRegistries.ENTITIES.getValues()) {
+            if (!TYPE_INDEX.containsKey(type)) {
+                int idx = TYPE_INDEX.size();
+                TYPE_INDEX.put(type, idx);
+                if (idx >= modForType.length) {
+                    modForType = Arrays.copyOf(modForType, modForType.length * 2);
+                }
+                modForType[idx] = getOrCreateModIndex(type.getRegistryName().getNamespace());
+            }
+        }
+    }
+
+    public static int getTypeCount() {
+        return TYPE_INDEX.size();
+    }
+
+    public static int getModCount() {
+        return MOD_INDEX.size();
+    }
+
+    // Returns -1 if the type was not registered when the index was built
+    public static int getTypeIndex(EntityType<?> type) {
+        return TYPE_INDEX.getInt(type);
+    }
+
+    // Returns -1 if no entity of this mod is known
+    public static int getModIndex(String mod) {
+        return MOD_INDEX.getInt(mod);
+    }
+
+    public static int getModIndexForType(int typeIndex) {
+        return modForType[typeIndex];
+    }
+
+    private static int getOrCreateModIndex(String mod) {
+        int idx = MOD_INDEX.getInt(mod);
+        if (idx == -1) {
+            idx = MOD_INDEX.size();
+            MOD_INDEX.put(mod, idx);
+        }
+        return idx;
+    }
+}
@@ -0,0 +1,154 @@
+package mcjty.incontrol.rules;
+
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMaps;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import mcjty.incontrol.tools.varia.Box;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
+import net.minecraft.entity.MobEntity;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.SectionPos;
+import net.minecraft.world.World;
+
+import java.util.Arrays;
+
+/**
+ * Counts mobs per entity type for every 16x16x16 section of a world. It is kept up to date
+ * from the join, leave and chunk crossing events so that a local count only has to look
+ * at the sections overlapping the query box
+ */
+public class MobSectionIndex {
+
+    // Indexed by EntityTypeIndex type index: section -> amount of mobs of that type
+    private Long2IntOpenHashMap[] perType = new Long2IntOpenHashMap[0];
+    // The section every indexed mob was last seen in
+    private final Int2LongOpenHashMap sectionOfEntity = new Int2LongOpenHashMap();
+
+    public void add(Entity entity) {
+        int type = EntityTypeIndex.getTypeIndex(entity.getType());
+        if (type == -1) {
+            return;
+        }
+        long section = getSection(entity);
+        sectionOfEntity.put(entity.getId(), section);
+        increment(type, section);
+    }
+
+    public void remove(Entity entity) {
+        if (sectionOfEntity.containsKey(entity.getId())) {
+            long section = sectionOfEntity.remove(entity.getId());
+            decrement(EntityTypeIndex.getTypeIndex(entity.getType()), section);
+        }
+    }
+
+    public void move(Entity entity) {
+        if (sectionOfEntity.containsKey(entity.getId())) {
+            long section = getSection(entity);
+            long old = sectionOfEntity.put(entity.getId(), section);
+            if (old != section) {
+                int type = EntityTypeIndex.getTypeIndex(entity.getType());
+                decrement(type, old);
+                increment(type, section);
+            }
+        }
+    }
+
+    public void clear() {
+        sectionOfEntity.clear();
+        Arrays.fill(perType, null);
+    }
+
+    // Count all mobs of the given type whose block position is in the box. Sections that are
+    // completely inside the box are counted from the index. For the sections on the edge of the
+    // box the mobs are looked up in the world to see which of them are really inside.
+    // Only mobs (MobEntity) are indexed. The spawner can't spawn anything else so for every type
+    // that it uses this is the same as counting all entities of that type
+    public int count(World world, EntityType<?> type, Box box) {
+        int idx = EntityTypeIndex.getTypeIndex(type);
+        if (idx == -1 || idx >= perType.length || perType[idx] == null) {
+            return 0;
+        }
+        Long2IntOpenHashMap counts = perType[idx];
+
+        int minX = box.getMinX() >> 4;
+        int minY = box.getMinY() >> 4;
+        int minZ = box.getMinZ() >> 4;
+        int maxX = box.getMaxX() >> 4;
+        int maxY = box.getMaxY() >> 4;
+        int maxZ = box.getMaxZ() >> 4;
+        long sections = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+
+        int total = 0;
+        if (counts.size() < sections) {
+            // Fewer occupied sections than sections in the box: test every occupied section
+            for (Long2IntMap.Entry entry : Long2IntMaps.fastIterable(counts)) {
+                long section = entry.getLongKey();
+                int x = SectionPos.x(section);
+                int y = SectionPos.y(section);
+                int z = SectionPos.z(section);
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+                    total += countSection(world, type, box, section, entry.getIntValue());
+                }
+            }
+        } else {
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        long section = SectionPos.asLong(x, y, z);
+                        int cnt = counts.get(section);
+                        if (cnt > 0) {
+                            total += countSection(world, type, box, section, cnt);
+                        }
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    private static int countSection(World world, EntityType<?> type, Box box, long section, int cnt) {
+        int x1 = SectionPos.x(section) << 4;
+        int y1 = SectionPos.y(section) << 4;
+        int z1 = SectionPos.z(section) << 4;
+        if (x1 >= box.getMinX() && x1 + 15 <= box.getMaxX()
+                && y1 >= box.getMinY() && y1 + 15 <= box.getMaxY()
+                && z1 >= box.getMinZ() && z1 + 15 <= box.getMaxZ()) {
+            return cnt;
+        }
+        AxisAlignedBB area = new AxisAlignedBB(
+                Math.max(x1, box.getMinX()), Math.max(y1, box.getMinY()), Math.max(z1, box.getMinZ()),
+                Math.min(x1 + 16, box.getMaxX() + 1), Math.min(y1 + 16, box.getMaxY() + 1), Math.min(z1 + 16, box.getMaxZ() + 1));
+        // Bounding boxes can reach into neighbouring sections so only take the mobs that are in this section
+        return world.getEntities(type, area, e -> e instanceof MobEntity && getSection(e) == section && box.in(e.blockPosition())).size();
+    }
+
+    private static long getSection(Entity entity) {
+        return SectionPos.asLong(
+                MathHelper.floor(entity.getX()) >> 4,
+                MathHelper.floor(entity.getY()) >> 4,
+                MathHelper.floor(entity.getZ()) >> 4);
+    }
+
+    private void increment(int type, long section) {
+        if (type >= perType.length) {
+            perType = Arrays.copyOf(perType, Math.max(type + 1, EntityTypeIndex.getTypeCount()));
+        }
+        if (perType[type] == null) {
+            perType[type] = new Long2IntOpenHashMap();
+        }
+        perType[type].addTo(section, 1);
+    }
+
+    private void decrement(int type, long section) {
+        if (type < perType.length && perType[type] != null) {
+            Long2IntOpenHashMap counts = perType[type];
+            int cnt = counts.addTo(section, -1) - 1;
+            if (cnt <= 0) {
+                counts.remove(section);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package mcjty.incontrol.rules;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A reader that knows the line and column of the last character that was read. Characters
+ * are read from the underlying reader in blocks. With a block size of 1 it gives at most one
+ * character per read so that a JsonReader on top of it never reads ahead: when that JsonReader
+ * fails the last character is the one where the error is
+ */
+class PositionReader extends Reader {
+
+    private final Reader in;
+    private final char[] buffer;
+    private int pos = 0;
+    private int limit = 0;
+    private int line;
+    private int column;
+    private boolean newLine = false;
+
+    PositionReader(Reader in, int blockSize) {
+        this(in, blockSize, 1, 1);
+    }
+
+    // For text that starts at the given line and column of a file
+    PositionReader(Reader in, int blockSize, int line, int column) {
+        this.in = in;
+        this.buffer = new char[blockSize];
+        this.line = line;
+        this.column = column - 1;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+
+    private char advance(char c) {
+        if (newLine) {
+            line++;
+            column = 0;
+            newLine = false;
+        }
+        column++;
+        if (c == '\n') {
+            // The newline itself is still on this line
+            newLine = true;
+        }
+        return c;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return advance(buffer[pos++]);
+    }
+
+    // The next character without reading it or -1 at the end
+    public int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    @Override
+    public int read(char[] cbuf, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        int n = Math.min(length, limit - pos);
+        for (int i = 0; i < n; i++) {
+            cbuf[offset + i] = advance(buffer[pos++]);
+        }
+        return n;
+    }
+
+    // Line (starting at 1) of the last character that was read
+    public int getLine() {
+        return line;
+    }
+
+    // Column (starting at 1) of the last character that was read
+    public int getColumn() {
+        return column;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
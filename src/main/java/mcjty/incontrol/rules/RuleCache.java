@@ -1,6 +1,11 @@
 package mcjty.incontrol.rules;
 
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import mcjty.incontrol.InControl;
+import mcjty.incontrol.setup.Config;
+import mcjty.incontrol.tools.varia.Box;
 import mcjty.incontrol.tools.varia.Tools;
+import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
 import net.minecraft.entity.MobEntity;
 import net.minecraft.entity.monster.IMob;
@@ -11,6 +16,7 @@ import net.minecraft.world.IWorld;
 import net.minecraft.world.World;
 import net.minecraft.world.server.ServerWorld;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,14 +24,6 @@ public class RuleCache {
 
     private Map<RegistryKey<World>, CachePerWorld> caches = new HashMap<>();
 
-    public void reset(IWorld world) {
-        RegistryKey<World> key = Tools.getDimensionKey(world);
-        CachePerWorld cache = caches.get(key);
-        if (cache != null) {
-            cache.reset();
-        }
-    }
-
     public int getValidSpawnChunks(IWorld world) {
         CachePerWorld cache = getOrCreateCache(world);
         return cache.getValidSpawnChunks(world);
@@ -60,30 +58,57 @@ public class RuleCache {
 
     public int getCountPerMod(IWorld world, String mod) {
         CachePerWorld cache = getOrCreateCache(world);
-        CountPerMod countPerMod = cache.getCountPerMod(world, mod);
-        return countPerMod == null ? 0 : countPerMod.total;
+        return cache.getCountPerMod(world, mod, cache.modTotal);
     }
 
     public int getCountPerModHostile(IWorld world, String mod) {
         CachePerWorld cache = getOrCreateCache(world);
-        CountPerMod countPerMod = cache.getCountPerMod(world, mod);
-        return countPerMod == null ? 0 : countPerMod.hostile;
+        return cache.getCountPerMod(world, mod, cache.modHostile);
     }
 
     public int getCountPerModPassive(IWorld world, String mod) {
         CachePerWorld cache = getOrCreateCache(world);
-        CountPerMod countPerMod = cache.getCountPerMod(world, mod);
-        return countPerMod == null ? 0 : countPerMod.passive;
+        return cache.getCountPerMod(world, mod, cache.modPassive);
+    }
+
+    public void registerSpawn(IWorld world, Entity entity) {
+        CachePerWorld cache = getOrCreateCache(world);
+        cache.registerSpawn(entity);
+    }
+
+    public void registerDespawn(IWorld world, Entity entity) {
+        CachePerWorld cache = getOrCreateCache(world);
+        cache.registerDespawn(entity);
     }
 
-    public void registerSpawn(IWorld world, EntityType entityType) {
+    public void registerMove(IWorld world, Entity entity) {
         CachePerWorld cache = getOrCreateCache(world);
-        cache.registerSpawn(world, entityType);
+        cache.sections.move(entity);
     }
 
-    public void registerDespawn(IWorld world, EntityType entityType) {
+    // Count the mobs of a given type in the box
+    public int getLocalCount(IWorld world, EntityType<?> entityType, Box box) {
         CachePerWorld cache = getOrCreateCache(world);
-        cache.registerDespawn(world, entityType);
+        return cache.sections.count(Tools.getServerWorld(world), entityType, box);
+    }
+
+    // Called every world tick. Besides resetting the per tick values this will also
+    // periodically verify the census against the real world
+    public void tick(World world) {
+        CachePerWorld cache = getOrCreateCache(world);
+        cache.reset();
+        int interval = Config.CENSUS_CHECK_INTERVAL.get();
+        if (interval > 0) {
+            long time = world.getGameTime();
+            if (cache.lastCheck < 0 || time - cache.lastCheck >= interval * 20L) {
+                cache.lastCheck = time;
+                cache.verify(world);
+            }
+        }
+    }
+
+    public void clear(IWorld world) {
+        caches.remove(Tools.getDimensionKey(world));
     }
 
     private CachePerWorld getOrCreateCache(IWorld world) {
@@ -97,33 +122,29 @@ public class RuleCache {
     }
 
 
-    private static class CountPerMod {
-        private int hostile;
-        private int passive;
-        private int neutral;
-        private int total;
-    }
-
     private class CachePerWorld {
 
-        private Map<EntityType, Integer> cachedCounters = new HashMap<>();
-        private Map<String, CountPerMod> countPerMod = new HashMap<>();
-        private int countPassive = -1;
-        private int countHostile = -1;
-        private int countNeutral = -1;
+        // The census is kept up to date by registerSpawn/registerDespawn and is never cleared
+        // Indexed by EntityTypeIndex type and mod indices
+        private int[] typeCounts = new int[0];
+        private int[] modTotal = new int[0];
+        private int[] modHostile = new int[0];
+        private int[] modPassive = new int[0];
+        private int[] modNeutral = new int[0];
+        private final IntOpenHashSet tracked = new IntOpenHashSet();
+        private final MobSectionIndex sections = new MobSectionIndex();
+        private int countPassive = 0;
+        private int countHostile = 0;
+        private int countNeutral = 0;
+        private long lastCheck = -1;
+
+        // These are recalculated every tick
         private int validSpawnChunks = -1;
         private int validPlayers = -1;
-        private boolean countDone = false;
 
         public void reset() {
-            cachedCounters.clear();
-            countPerMod.clear();
-            countPassive = -1;
-            countHostile = -1;
-            countNeutral = -1;
             validSpawnChunks = -1;
             validPlayers = -1;
-            countDone = false;
         }
 
         public int getValidSpawnChunks(IWorld world) {
@@ -156,76 +177,110 @@ public class RuleCache {
         }
 
         public int getCountPassive(IWorld world) {
-            count(world);
             return countPassive;
         }
 
         public int getCountHostile(IWorld world) {
-            count(world);
             return countHostile;
         }
 
         public int getCountNeutral(IWorld world) {
-            count(world);
             return countNeutral;
         }
 
-        private void count(IWorld world) {
-            if (countDone) {
-                return;
-            }
-            countDone = true;
-            cachedCounters.clear();
-            countPerMod.clear();
-            countPassive = 0;
-            countHostile = 0;
-            countNeutral = 0;
+        public int getCount(IWorld world, EntityType entityType) {
+            int idx = EntityTypeIndex.getTypeIndex(entityType);
+            return idx >= 0 && idx < typeCounts.length ? typeCounts[idx] : 0;
+        }
 
-            ServerWorld sw = Tools.getServerWorld(world);
+        public int getCountPerMod(IWorld world, String mod, int[] counters) {
+            int idx = EntityTypeIndex.getModIndex(mod);
+            return idx >= 0 && idx < counters.length ? counters[idx] : 0;
+        }
 
-            sw.getEntities().forEach(entity -> {
-                if (entity instanceof MobEntity) {
-                    int cnt = cachedCounters.getOrDefault(entity.getType(), 0)+1;
-                    cachedCounters.put(entity.getType(), cnt);
-
-                    String mod = entity.getType().getRegistryName().getNamespace();
-                    CountPerMod count = countPerMod.computeIfAbsent(mod, s -> new CountPerMod());
-                    count.total++;
-
-                    if (entity instanceof IMob) {
-                        count.hostile++;
-                        countHostile++;
-                    } else if (entity instanceof AnimalEntity) {
-                        count.passive++;
-                        countPassive++;
-                    } else {
-                        count.neutral++;
-                        countNeutral++;
-                    }
-                }
-            });
+        // Every counted mob is remembered so that spawns and despawns always come in pairs. A mob that
+        // dies is uncounted immediately and the later leave event for that same mob is ignored
+        public void registerSpawn(Entity entity) {
+            if (entity instanceof MobEntity && tracked.add(entity.getId())) {
+                update(entity, 1);
+                sections.add(entity);
+            }
         }
 
-        public int getCount(IWorld world, EntityType entityType) {
-            count(world);
-            return cachedCounters.getOrDefault(entityType, 0);
+        public void registerDespawn(Entity entity) {
+            if (entity instanceof MobEntity && tracked.remove(entity.getId())) {
+                update(entity, -1);
+                sections.remove(entity);
+            }
         }
 
-        public CountPerMod getCountPerMod(IWorld world, String mod) {
-            count(world);
-            return countPerMod.get(mod);
+        private void update(Entity entity, int delta) {
+            // Types that were not registered at startup are only counted in the totals
+            int type = EntityTypeIndex.getTypeIndex(entity.getType());
+            int mod = type == -1 ? -1 : EntityTypeIndex.getModIndexForType(type);
+            ensureCapacity();
+
+            if (type != -1) {
+                typeCounts[type] = Math.max(0, typeCounts[type] + delta);
+                modTotal[mod] = Math.max(0, modTotal[mod] + delta);
+            }
+            if (entity instanceof IMob) {
+                if (mod != -1) {
+                    modHostile[mod] = Math.max(0, modHostile[mod] + delta);
+                }
+                countHostile = Math.max(0, countHostile + delta);
+            } else if (entity instanceof AnimalEntity) {
+                if (mod != -1) {
+                    modPassive[mod] = Math.max(0, modPassive[mod] + delta);
+                }
+                countPassive = Math.max(0, countPassive + delta);
+            } else {
+                if (mod != -1) {
+                    modNeutral[mod] = Math.max(0, modNeutral[mod] + delta);
+                }
+                countNeutral = Math.max(0, countNeutral + delta);
+            }
         }
 
-        public void registerSpawn(IWorld world, EntityType entityType) {
-            count(world);
-            cachedCounters.put(entityType, cachedCounters.getOrDefault(entityType, 0) + 1);
+        private void ensureCapacity() {
+            int types = EntityTypeIndex.getTypeCount();
+            if (typeCounts.length < types) {
+                typeCounts = Arrays.copyOf(typeCounts, types);
+            }
+            int mods = EntityTypeIndex.getModCount();
+            if (modTotal.length < mods) {
+                modTotal = Arrays.copyOf(modTotal, mods);
+                modHostile = Arrays.copyOf(modHostile, mods);
+                modPassive = Arrays.copyOf(modPassive, mods);
+                modNeutral = Arrays.copyOf(modNeutral, mods);
+            }
         }
 
-        public void registerDespawn(IWorld world, EntityType entityType) {
-            count(world);
-            Integer cnt = cachedCounters.getOrDefault(entityType, 0);
-            if (cnt > 0) {
-                cachedCounters.put(entityType, cnt-1);
+        // Slow check that recounts all mobs in the world and replaces the census if it drifted
+        private void verify(IWorld world) {
+            int hostile = countHostile;
+            int passive = countPassive;
+            int neutral = countNeutral;
+
+            Arrays.fill(typeCounts, 0);
+            Arrays.fill(modTotal, 0);
+            Arrays.fill(modHostile, 0);
+            Arrays.fill(modPassive, 0);
+            Arrays.fill(modNeutral, 0);
+            countPassive = 0;
+            countHostile = 0;
+            countNeutral = 0;
+            tracked.clear();
+            sections.clear();
+
+            ServerWorld sw = Tools.getServerWorld(world);
+            sw.getEntities().filter(Entity::isAlive).forEach(this::registerSpawn);
+
+            if (hostile != countHostile || passive != countPassive || neutral != countNeutral) {
+                InControl.setup.getLogger().debug("Corrected mob census for " + sw.dimension().location()
+                        + ": hostile " + hostile + " -> " + countHostile
+                        + ", passive " + passive + " -> " + countPassive
+                        + ", neutral " + neutral + " -> " + countNeutral);
             }
         }
     }
@@ -0,0 +1,129 @@
+package mcjty.incontrol.rules;
+
+import com.google.gson.JsonElement;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import mcjty.incontrol.ErrorHandler;
+import mcjty.incontrol.InControl;
+import org.apache.logging.log4j.Level;
+
+import javax.annotation.Nullable;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The rules of one rule file together with the content hash of that file and a key (the
+ * hash of the json) for every rule. On a reload a file with the same hash keeps these rules
+ * and rules with the same json are reused (together with their runtime state) instead of
+ * being rebuilt
+ */
+public class RuleCategory<T> {
+
+    private final String hash;          // Content hash of the file or null if not known
+    private final List<T> rules;
+    private final List<String> keys;    // The hash of the json of every rule or null if not known
+
+    private RuleCategory(String hash, List<T> rules, List<String> keys) {
+        this.hash = hash;
+        this.rules = Collections.unmodifiableList(rules);
+        this.keys = keys == null ? null : Collections.unmodifiableList(keys);
+    }
+
+    public static <T> RuleCategory<T> empty() {
+        return new RuleCategory<>(null, new ArrayList<>(), null);
+    }
+
+    // Rules that didn't come from a rule file with a hash (custom files). These are never reused
+    public static <T> RuleCategory<T> of(List<T> rules) {
+        return new RuleCategory<>(null, new ArrayList<>(rules), null);
+    }
+
+    /**
+     * Builds the rules for the entries of a rule file while the file is being read. Entries
+     * that have the same json as a rule in 'previous' reuse that rule
+     */
+    public static class Builder<T> {
+        private final RuleCategory<T> previous;
+        private final Map<String, IntArrayFIFOQueue> previousRules;
+        private final Function<JsonElement, T> parser;
+        private final List<T> rules = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private final IntList reused = new IntArrayList();
+        private int index = 0;
+
+        public Builder(RuleCategory<T> previous, Function<JsonElement, T> parser) {
+            this.previous = previous;
+            this.previousRules = previous.getRulesByKey();
+            this.parser = parser;
+        }
+
+        // Add the next entry of the file. If 'entry' is null the rule in 'previous' with the same key is reused
+        public void add(String location, @Nullable JsonElement entry, String key) {
+            int i = index++;
+            if (entry == null) {
+                // RuleFile only drops entries that have a rule in 'previous'
+                int idx = previousRules.get(key).dequeueInt();
+                rules.add(previous.rules.get(idx));
+                keys.add(key);
+                reused.add(idx);
+                return;
+            }
+            T rule;
+            try {
+                rule = parser.apply(entry);
+            } catch (Exception e) {
+                ErrorHandler.error("Error in rule " + i + " at " + location + ": check log for details (" + e.getMessage() + ")");
+                InControl.setup.getLogger().log(Level.ERROR, "Error in rule " + i + " at " + location, e);
+                rule = null;
+            }
+            if (rule != null) {
+                rules.add(rule);
+                keys.add(key);
+                reused.add(-1);
+            } else {
+                InControl.setup.getLogger().log(Level.ERROR, "Rule " + i + " at " + location + " is invalid, skipping!");
+            }
+        }
+
+        // For every new rule the index of the rule in 'previous' that was reused or -1 if the rule is new
+        public IntList getReused() {
+            return reused;
+        }
+
+        public RuleCategory<T> build(String hash) {
+            return new RuleCategory<>(hash, rules, keys);
+        }
+    }
+
+    // How many rules there are for every key. Used to decide which entries of a file can reuse a rule
+    public Map<String, Integer> getKeyCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        if (keys != null) {
+            for (String key : keys) {
+                counts.merge(key, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    // For every key the indices of the rules with that key (rules can be duplicated)
+    private Map<String, IntArrayFIFOQueue> getRulesByKey() {
+        Map<String, IntArrayFIFOQueue> map = new HashMap<>();
+        if (keys != null) {
+            for (int i = 0; i < keys.size(); i++) {
+                map.computeIfAbsent(keys.get(i), s -> new IntArrayFIFOQueue()).enqueue(i);
+            }
+        }
+        return map;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public List<T> getRules() {
+        return rules;
+    }
+}
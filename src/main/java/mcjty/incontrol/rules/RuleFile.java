@@ -0,0 +1,230 @@
+package mcjty.incontrol.rules;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import mcjty.incontrol.InControl;
+import mcjty.incontrol.tools.varia.JSonTools;
+import org.apache.logging.log4j.Level;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * Streams a rule file one array entry at a time. Only the text of the current entry is kept:
+ * it is parsed to json and handed off before the next entry is read, so the tree for the whole
+ * file is never built. The content hash of the file is computed while it is read
+ */
+public class RuleFile {
+
+    private static final int BLOCK_SIZE = 8192;
+
+    /**
+     * Gets every entry of a rule file in order. 'entry' is null if the rule in the previous
+     * category with the same key can be reused. 'key' is the hash of the json of the entry
+     */
+    public interface EntryHandler {
+        void accept(String location, @Nullable JsonElement entry, String key);
+    }
+
+    private final String hash;
+    private final boolean unchanged;
+
+    private RuleFile(String hash, boolean unchanged) {
+        this.hash = hash;
+        this.unchanged = unchanged;
+    }
+
+    public static RuleFile load(String path, String filename, RuleCategory<?> previous, EntryHandler handler) {
+        File file = JSonTools.getRuleFile(path, filename, InControl.setup.getLogger());
+        InControl.setup.getLogger().log(Level.INFO, "Reading rules from " + filename);
+        MessageDigest fileDigest = newDigest();
+        MessageDigest keyDigest = newDigest();
+        Map<String, Integer> reusable = previous.getKeyCounts();
+        JsonParser parser = new JsonParser();
+        try (PositionReader reader = new PositionReader(new BufferedReader(new InputStreamReader(
+                new DigestInputStream(new FileInputStream(file), fileDigest), StandardCharsets.UTF_8)), BLOCK_SIZE)) {
+            int c = skipBlank(reader);
+            // An empty file (or one with only whitespace) has no rules
+            if (c != -1) {
+                if (c != '[') {
+                    throw error(filename, reader, "Expected '[' but got '" + (char) c + "'");
+                }
+                while ((c = skipSeparators(reader)) != ']') {
+                    if (c == -1) {
+                        throw error(filename, reader, "Unterminated array");
+                    }
+                    int line = reader.getLine();
+                    int column = reader.getColumn();
+                    String text = readValue(filename, reader, c);
+                    JsonElement entry = parse(parser, filename, text, line, column);
+                    String key = toHex(keyDigest.digest(entry.toString().getBytes(StandardCharsets.UTF_8)));
+                    int cnt = reusable.getOrDefault(key, 0);
+                    if (cnt > 0) {
+                        reusable.put(key, cnt - 1);
+                        entry = null;
+                    }
+                    handler.accept(filename + ":" + line + ":" + column, entry, key);
+                }
+                if (skipBlank(reader) != -1) {
+                    throw error(filename, reader, "Unexpected text after the rules");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading " + filename + "!", e);
+        }
+        // The whole file has been read so the digest is complete
+        String hash = toHex(fileDigest.digest());
+        return new RuleFile(hash, hash.equals(previous.getHash()));
+    }
+
+    private static JsonParseException error(String filename, PositionReader reader, String message) {
+        return new JsonParseException(filename + ":" + reader.getLine() + ":" + reader.getColumn() + ": " + message);
+    }
+
+    private static JsonElement parse(JsonParser parser, String filename, String text, int line, int column) {
+        try {
+            return parser.parse(text);
+        } catch (JsonParseException e) {
+            // Parse the entry again one character at a time to find where the error is
+            PositionReader position = new PositionReader(new StringReader(text), 1, line, column);
+            try {
+                parser.parse(position);
+            } catch (JsonParseException e2) {
+                throw new JsonParseException(filename + ":" + position.getLine() + ":" + position.getColumn() + ": " + e2.getMessage(), e2);
+            }
+            throw new JsonParseException(filename + ":" + line + ":" + column + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Skip whitespace and comments. Returns the next character or -1 at the end of the file
+    private static int skipBlank(PositionReader reader) throws IOException {
+        while (true) {
+            int c = reader.read();
+            if (c == '/' && (reader.peek() == '/' || reader.peek() == '*')) {
+                skipComment(reader, c, null);
+            } else if (c == '#') {
+                skipComment(reader, c, null);
+            } else if (c == -1 || !Character.isWhitespace(c)) {
+                return c;
+            }
+        }
+    }
+
+    private static int skipSeparators(PositionReader reader) throws IOException {
+        int c = skipBlank(reader);
+        while (c == ',' || c == ';') {
+            c = skipBlank(reader);
+        }
+        return c;
+    }
+
+    // Skip a comment that starts with 'first'. The comment is added to 'text' if that is not null
+    private static void skipComment(PositionReader reader, int first, @Nullable StringBuilder text) throws IOException {
+        boolean block = first == '/' && reader.peek() == '*';
+        if (block) {
+            append(text, reader.read());
+        }
+        int prev = 0;
+        int c;
+        while ((c = reader.peek()) != -1) {
+            if (!block && (c == '\n' || c == '\r')) {
+                return;
+            }
+            append(text, reader.read());
+            if (block && prev == '*' && c == '/') {
+                return;
+            }
+            prev = c;
+        }
+    }
+
+    private static void append(@Nullable StringBuilder text, int c) {
+        if (text != null) {
+            text.append((char) c);
+        }
+    }
+
+    // The text of one entry of the array. 'first' is the first character of that entry
+    private static String readValue(String filename, PositionReader reader, int first) throws IOException {
+        StringBuilder text = new StringBuilder();
+        text.append((char) first);
+        if (first == '"' || first == '\'') {
+            readString(filename, reader, first, text);
+        } else if (first == '{' || first == '[') {
+            // Comments are kept so that the text has the same lines and columns as the file
+            int depth = 1;
+            while (depth > 0) {
+                int c = reader.read();
+                if (c == -1) {
+                    throw error(filename, reader, "Unterminated rule");
+                }
+                text.append((char) c);
+                if (c == '"' || c == '\'') {
+                    readString(filename, reader, c, text);
+                } else if ((c == '/' && (reader.peek() == '/' || reader.peek() == '*')) || c == '#') {
+                    skipComment(reader, c, text);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            // A number or literal. That is not a valid rule but the parser will tell
+            int c;
+            while ((c = reader.peek()) != -1 && ",;]}/# \t\r\n".indexOf(c) < 0) {
+                text.append((char) reader.read());
+            }
+        }
+        return text.toString();
+    }
+
+    private static void readString(String filename, PositionReader reader, int quote, StringBuilder text) throws IOException {
+        while (true) {
+            int c = reader.read();
+            if (c == -1) {
+                throw error(filename, reader, "Unterminated string");
+            }
+            text.append((char) c);
+            if (c == '\\') {
+                int escaped = reader.read();
+                if (escaped == -1) {
+                    throw error(filename, reader, "Unterminated string");
+                }
+                text.append((char) escaped);
+            } else if (c == quote) {
+                return;
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java runtime has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        return new BigInteger(1, digest).toString(16);
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    // True if the file has the same content as the rules we already have. The entries were still
+    // handed off but all of them (except the ones that failed before) could reuse a rule
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+}
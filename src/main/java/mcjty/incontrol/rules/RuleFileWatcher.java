@@ -0,0 +1,115 @@
+package mcjty.incontrol.rules;
+
+import mcjty.incontrol.InControl;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Util;
+import net.minecraft.util.text.StringTextComponent;
+import net.minecraft.util.text.TextFormatting;
+import org.apache.logging.log4j.Level;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the incontrol config directory (if 'autoReload' is enabled) and reloads the rule
+ * files that changed. Editors often write a file in several steps so the reload only happens
+ * after there were no more changes for a while. Only the changed files are read again
+ */
+public class RuleFileWatcher {
+
+    private static WatchService watchService = null;
+
+    public static void start(MinecraftServer server, long delay) {
+        stop();
+        Path directory = Paths.get(RulesManager.getPath() + File.separator + "incontrol");
+        WatchService service;
+        try {
+            service = directory.getFileSystem().newWatchService();
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            InControl.setup.getLogger().log(Level.ERROR, "Can't watch '" + directory + "' for changes", e);
+            return;
+        }
+        watchService = service;
+
+        Thread thread = new Thread(() -> watch(service, server, delay), "InControl Rule Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static void stop() {
+        if (watchService != null) {
+            try {
+                // This also ends the watcher thread
+                watchService.close();
+            } catch (IOException e) {
+                InControl.setup.getLogger().log(Level.ERROR, "Error closing the rule watcher", e);
+            }
+            watchService = null;
+        }
+    }
+
+    private static void watch(WatchService service, MinecraftServer server, long delay) {
+        Set<String> changed = new HashSet<>();
+        long deadline = 0;
+        try {
+            while (true) {
+                // Wait for the first change and after that until no rule file changed for 'delay' milliseconds.
+                // Changes of other files in the directory don't postpone the reload
+                WatchKey key;
+                if (changed.isEmpty()) {
+                    key = service.take();
+                } else {
+                    key = service.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                if (key == null) {
+                    reload(server, changed);
+                    changed = new HashSet<>();
+                    continue;
+                }
+                boolean ruleFileChanged = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // We lost events so we don't know what changed
+                        changed.addAll(RulesManager.RULE_FILES);
+                        ruleFileChanged = true;
+                    } else {
+                        String name = ((Path) event.context()).getFileName().toString();
+                        if (RulesManager.RULE_FILES.contains(name)) {
+                            changed.add(name);
+                            ruleFileChanged = true;
+                        }
+                    }
+                }
+                key.reset();
+                if (ruleFileChanged) {
+                    deadline = System.currentTimeMillis() + delay;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The watcher was stopped
+        }
+    }
+
+    private static void reload(MinecraftServer server, Set<String> files) {
+        InControl.setup.getLogger().log(Level.INFO, "Rule files changed, reloading " + files);
+        RulesManager.reloadRulesAsync(server, files).whenComplete((v, e) -> {
+            // Errors in the rules themselves are already reported by the ErrorHandler
+            if (e != null) {
+                InControl.setup.getLogger().log(Level.ERROR, "Error reloading " + files, e);
+                server.execute(() -> {
+                    for (ServerPlayerEntity player : server.getPlayerList().getPlayers()) {
+                        if (player.hasPermissions(1)) {
+                            player.sendMessage(new StringTextComponent(TextFormatting.RED + "Error reloading " + files + ": " + e.getLocalizedMessage()), Util.NIL_UUID);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
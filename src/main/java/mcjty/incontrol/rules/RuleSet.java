@@ -0,0 +1,188 @@
+package mcjty.incontrol.rules;
+
+import mcjty.incontrol.spawner.SpawnerRule;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All rules that were read from the config files (including spawner.json). A rule set never
+ * changes after it is made. A reload builds a complete new rule set and installs it as a whole
+ * so that events either see the old or the new rules but never something in between.
+ * The only mutable part is the cache of snapshots that are derived from these rules
+ */
+public class RuleSet {
+
+    public static final RuleSet EMPTY = create().build();
+
+    // Maximum number of phase combinations that we remember snapshots for
+    private static final int MAX_SNAPSHOTS = 64;
+
+    private final RuleCategory<SpawnRule> spawnRules;
+    private final RuleCategory<SummonAidRule> summonAidRules;
+    private final RuleCategory<PotentialSpawnRule> potentialSpawnRules;
+    private final RuleCategory<LootRule> lootRules;
+    private final RuleCategory<ExperienceRule> experienceRules;
+    private final RuleCategory<PhaseRule> phaseRules;
+    private final RuleCategory<SpawnerRule> spawnerRules;
+
+    // The snapshot for the current phases. Replaced as a whole when the phases change
+    private volatile RuleSnapshot snapshot = null;
+    // Snapshots for phase combinations that we have seen before (day/night, ...)
+    private final Map<Set<String>, RuleSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    private RuleSet(Builder builder) {
+        spawnRules = builder.spawnRules;
+        summonAidRules = builder.summonAidRules;
+        potentialSpawnRules = builder.potentialSpawnRules;
+        lootRules = builder.lootRules;
+        experienceRules = builder.experienceRules;
+        phaseRules = builder.phaseRules;
+        spawnerRules = builder.spawnerRules;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    // Start a new rule set with the same rules as this one. The categories are shared as is so
+    // users of a single category (like the spawner) can see that it didn't change
+    public Builder copy() {
+        return new Builder()
+                .spawnRules(spawnRules)
+                .summonAidRules(summonAidRules)
+                .potentialSpawnRules(potentialSpawnRules)
+                .lootRules(lootRules)
+                .experienceRules(experienceRules)
+                .phaseRules(phaseRules)
+                .spawnerRules(spawnerRules);
+    }
+
+    public List<SpawnRule> getSpawnRules() {
+        return spawnRules.getRules();
+    }
+
+    public RuleCategory<SpawnRule> getSpawnCategory() {
+        return spawnRules;
+    }
+
+    public List<SummonAidRule> getSummonAidRules() {
+        return summonAidRules.getRules();
+    }
+
+    public RuleCategory<SummonAidRule> getSummonAidCategory() {
+        return summonAidRules;
+    }
+
+    public List<PotentialSpawnRule> getPotentialSpawnRules() {
+        return potentialSpawnRules.getRules();
+    }
+
+    public RuleCategory<PotentialSpawnRule> getPotentialSpawnCategory() {
+        return potentialSpawnRules;
+    }
+
+    public List<LootRule> getLootRules() {
+        return lootRules.getRules();
+    }
+
+    public RuleCategory<LootRule> getLootCategory() {
+        return lootRules;
+    }
+
+    public List<ExperienceRule> getExperienceRules() {
+        return experienceRules.getRules();
+    }
+
+    public RuleCategory<ExperienceRule> getExperienceCategory() {
+        return experienceRules;
+    }
+
+    public List<PhaseRule> getPhaseRules() {
+        return phaseRules.getRules();
+    }
+
+    public RuleCategory<PhaseRule> getPhaseCategory() {
+        return phaseRules;
+    }
+
+    public List<SpawnerRule> getSpawnerRules() {
+        return spawnerRules.getRules();
+    }
+
+    public RuleCategory<SpawnerRule> getSpawnerCategory() {
+        return spawnerRules;
+    }
+
+    // The snapshot for the current phases or null if the phases are not known yet
+    public RuleSnapshot getCurrentSnapshot() {
+        return snapshot;
+    }
+
+    public void setCurrentPhases(Set<String> phases) {
+        snapshot = getSnapshot(phases);
+    }
+
+    // Switching back to phases we had before just reuses that snapshot
+    public RuleSnapshot getSnapshot(Set<String> phases) {
+        RuleSnapshot s = snapshots.get(phases);
+        if (s == null) {
+            if (snapshots.size() >= MAX_SNAPSHOTS) {
+                snapshots.clear();
+            }
+            Set<String> key = Collections.unmodifiableSet(new HashSet<>(phases));
+            s = new RuleSnapshot(key, spawnRules.getRules(), summonAidRules.getRules(), lootRules.getRules(), experienceRules.getRules());
+            snapshots.put(key, s);
+        }
+        return s;
+    }
+
+    public static class Builder {
+        private RuleCategory<SpawnRule> spawnRules = RuleCategory.empty();
+        private RuleCategory<SummonAidRule> summonAidRules = RuleCategory.empty();
+        private RuleCategory<PotentialSpawnRule> potentialSpawnRules = RuleCategory.empty();
+        private RuleCategory<LootRule> lootRules = RuleCategory.empty();
+        private RuleCategory<ExperienceRule> experienceRules = RuleCategory.empty();
+        private RuleCategory<PhaseRule> phaseRules = RuleCategory.empty();
+        private RuleCategory<SpawnerRule> spawnerRules = RuleCategory.empty();
+
+        public Builder spawnRules(RuleCategory<SpawnRule> rules) {
+            this.spawnRules = rules;
+            return this;
+        }
+
+        public Builder summonAidRules(RuleCategory<SummonAidRule> rules) {
+            this.summonAidRules = rules;
+            return this;
+        }
+
+        public Builder potentialSpawnRules(RuleCategory<PotentialSpawnRule> rules) {
+            this.potentialSpawnRules = rules;
+            return this;
+        }
+
+        public Builder lootRules(RuleCategory<LootRule> rules) {
+            this.lootRules = rules;
+            return this;
+        }
+
+        public Builder experienceRules(RuleCategory<ExperienceRule> rules) {
+            this.experienceRules = rules;
+            return this;
+        }
+
+        public Builder phaseRules(RuleCategory<PhaseRule> rules) {
+            this.phaseRules = rules;
+            return this;
+        }
+
+        public Builder spawnerRules(RuleCategory<SpawnerRule> rules) {
+            this.spawnerRules = rules;
+            return this;
+        }
+
+        public RuleSet build() {
+            return new RuleSet(this);
+        }
+    }
+}
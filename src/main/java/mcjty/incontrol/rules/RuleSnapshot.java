@@ -0,0 +1,86 @@
+package mcjty.incontrol.rules;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The rules that are active for one set of phases. A snapshot never changes after it
+ * is made so it can be shared freely between threads
+ */
+public class RuleSnapshot {
+
+    private final Set<String> phases;
+    private final SpawnRuleIndex joinRules;
+    private final SpawnRuleIndex checkSpawnRules;
+    private final List<SummonAidRule> summonAidRules;
+    private final List<LootRule> lootRules;
+    private final List<ExperienceRule> experienceRules;
+
+    public RuleSnapshot(Set<String> phases, List<SpawnRule> rules, List<SummonAidRule> summonAidRules,
+                        List<LootRule> lootRules, List<ExperienceRule> experienceRules) {
+        this.phases = phases;
+
+        List<SpawnRule> join = new ArrayList<>();
+        IntList joinIndices = new IntArrayList();
+        List<SpawnRule> checkSpawn = new ArrayList<>();
+        IntList checkSpawnIndices = new IntArrayList();
+        for (int i = 0; i < rules.size(); i++) {
+            SpawnRule rule = rules.get(i);
+            if (phases.containsAll(rule.getPhases())) {
+                if (rule.isOnJoin()) {
+                    join.add(rule);
+                    joinIndices.add(i);
+                } else {
+                    checkSpawn.add(rule);
+                    checkSpawnIndices.add(i);
+                }
+            }
+        }
+        joinRules = new SpawnRuleIndex(join.toArray(new SpawnRule[0]), joinIndices.toIntArray());
+        checkSpawnRules = new SpawnRuleIndex(checkSpawn.toArray(new SpawnRule[0]), checkSpawnIndices.toIntArray());
+
+        this.summonAidRules = filter(summonAidRules, SummonAidRule::getPhases);
+        this.lootRules = filter(lootRules, LootRule::getPhases);
+        this.experienceRules = filter(experienceRules, ExperienceRule::getPhases);
+    }
+
+    private <T> List<T> filter(List<T> rules, Function<T, Set<String>> phaseGetter) {
+        List<T> result = new ArrayList<>();
+        for (T rule : rules) {
+            if (phases.containsAll(phaseGetter.apply(rule))) {
+                result.add(rule);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public Set<String> getPhases() {
+        return phases;
+    }
+
+    public SpawnRuleIndex getJoinRules() {
+        return joinRules;
+    }
+
+    public SpawnRuleIndex getCheckSpawnRules() {
+        return checkSpawnRules;
+    }
+
+    public List<SummonAidRule> getSummonAidRules() {
+        return summonAidRules;
+    }
+
+    public List<LootRule> getLootRules() {
+        return lootRules;
+    }
+
+    public List<ExperienceRule> getExperienceRules() {
+        return experienceRules;
+    }
+}
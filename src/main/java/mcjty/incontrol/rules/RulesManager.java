@@ -1,95 +1,152 @@
 package mcjty.incontrol.rules;
 
 import com.google.gson.JsonElement;
+import it.unimi.dsi.fastutil.ints.IntList;
 import mcjty.incontrol.ErrorHandler;
 import mcjty.incontrol.InControl;
 import mcjty.incontrol.data.DataStorage;
+import mcjty.incontrol.data.Statistics;
+import mcjty.incontrol.spawner.SpawnerParser;
 import mcjty.incontrol.tools.varia.JSonTools;
+import net.minecraft.util.Util;
 import net.minecraft.world.World;
 import org.apache.logging.log4j.Level;
 
 import java.io.File;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class RulesManager {
 
-    private static List<SpawnRule> rules = new ArrayList<>();
-    private static List<SpawnRule> filteredRules = null;
+    // All current rules. A reload builds a new rule set and replaces this as a whole
+    private static volatile RuleSet ruleSet = RuleSet.EMPTY;
 
-    private static List<SummonAidRule> summonAidRules = new ArrayList<>();
-    private static List<SummonAidRule> filteredSummonAidRules = null;
+    // Guards every change of 'ruleSet' and 'lastReload'
+    private static final Object LOCK = new Object();
+    // Reloads are done one after the other. A new reload starts when this one is installed
+    private static CompletableFuture<Void> lastReload = CompletableFuture.completedFuture(null);
 
-    private static List<LootRule> lootRules = new ArrayList<>();
-    private static List<LootRule> filteredLootRules = null;
+    private static String path;
 
-    private static List<ExperienceRule> experienceRules = new ArrayList<>();
-    private static List<ExperienceRule> filteredExperienceRuiles = null;
+    // All rule files in the incontrol config directory
+    public static final List<String> RULE_FILES = Collections.unmodifiableList(Arrays.asList(
+            "spawn.json", "summonaid.json", "potentialspawn.json", "loot.json", "experience.json", "phases.json", "spawner.json"));
 
-    public static List<PotentialSpawnRule> potentialSpawnRules = new ArrayList<>();
-    public static List<PhaseRule> phaseRules = new ArrayList<>();
-    private static String path;
+    /**
+     * Reload all rule files without blocking the server. The files are read and parsed
+     * to json in parallel on a background thread. Creating the rules needs the registries
+     * so that is done on the given executor (the server). The returned future completes
+     * (on the server thread) after the new rules have been installed
+     */
+    public static CompletableFuture<Void> reloadRulesAsync(Executor server) {
+        return reloadRulesAsync(server, RULE_FILES);
+    }
+
+    // Like reloadRulesAsync but only the given rule files are read again. The rules of the other
+    // files are kept as they are
+    public static CompletableFuture<Void> reloadRulesAsync(Executor server, Collection<String> files) {
+        synchronized (LOCK) {
+            CompletableFuture<Void> reload = lastReload.handle((v, e) -> null).thenCompose(v -> startReload(server, files));
+            lastReload = reload;
+            return reload;
+        }
+    }
 
-    public static void reloadRules() {
-        rules.clear();
-        summonAidRules.clear();
-        potentialSpawnRules.clear();
-        lootRules.clear();
-        experienceRules.clear();
-        phaseRules.clear();
-        onPhaseChange();
-        readAllRules();
+    private static CompletableFuture<Void> startReload(Executor server, Collection<String> files) {
+        RuleSet previous = ruleSet;
+        List<FileLoad<?>> loads = loadRuleFiles(server, files, previous);
+        CompletableFuture<Void> installed = new CompletableFuture<>();
+        CompletableFuture.allOf(loads.stream().map(load -> load.file).toArray(CompletableFuture[]::new)).whenComplete((v, e) -> {
+            // Errors of single files are reported by installRules(). Every entry was handed to the
+            // server before its file completed so this runs after all rules have been created
+            server.execute(() -> {
+                try {
+                    installRules(loads);
+                    installed.complete(null);
+                } catch (Throwable t) {
+                    installed.completeExceptionally(t);
+                }
+            });
+        });
+        return installed;
     }
 
     public static void setRulePath(Path path) {
         RulesManager.path = path.toString();
     }
 
+    public static String getPath() {
+        return path;
+    }
+
+    // Read all rule files and install the rules on the calling thread. The files are still
+    // read in parallel but the rules are created here while this waits for them
     public static void readRules() {
-        readAllRules();
+        BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+        CompletableFuture<Void> installed = startReload(tasks::add, RULE_FILES);
+        try {
+            while (!installed.isDone()) {
+                tasks.take().run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the rules", e);
+        }
+        installed.join();
+    }
+
+    public static RuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    public static List<PotentialSpawnRule> getPotentialSpawnRules() {
+        return ruleSet.getPotentialSpawnRules();
     }
 
-    public static void onPhaseChange() {
-        filteredRules = null;
-        filteredSummonAidRules = null;
-        filteredLootRules = null;
-        filteredExperienceRuiles = null;
+    public static List<PhaseRule> getPhaseRules() {
+        return ruleSet.getPhaseRules();
     }
 
-    public static List<SpawnRule> getFilteredRules(World world) {
-        if (filteredRules == null) {
-            Set<String> phases = DataStorage.getData(world).getPhases();
-            filteredRules = rules.stream().filter(r -> phases.containsAll(r.getPhases())).collect(Collectors.toList());
+    // Called with the new set of active phases
+    public static void onPhaseChange(Set<String> phases) {
+        ruleSet.setCurrentPhases(phases);
+    }
+
+    public static RuleSnapshot getSnapshot(World world) {
+        RuleSet set = ruleSet;
+        RuleSnapshot s = set.getCurrentSnapshot();
+        if (s == null) {
+            set.setCurrentPhases(DataStorage.getData(world).getPhases());
+            s = set.getCurrentSnapshot();
         }
-        return filteredRules;
+        return s;
+    }
+
+    public static SpawnRuleIndex getJoinRules(World world) {
+        return getSnapshot(world).getJoinRules();
+    }
+
+    public static SpawnRuleIndex getCheckSpawnRules(World world) {
+        return getSnapshot(world).getCheckSpawnRules();
     }
 
     public static List<SummonAidRule> getFilteredSummonAidRules(World world) {
-        if (filteredSummonAidRules == null) {
-            Set<String> phases = DataStorage.getData(world).getPhases();
-            filteredSummonAidRules = summonAidRules.stream().filter(r -> phases.containsAll(r.getPhases())).collect(Collectors.toList());
-        }
-        return filteredSummonAidRules;
+        return getSnapshot(world).getSummonAidRules();
     }
 
     public static List<LootRule> getFilteredLootRules(World world) {
-        if (filteredLootRules == null) {
-            Set<String> phases = DataStorage.getData(world).getPhases();
-            filteredLootRules = lootRules.stream().filter(r -> phases.containsAll(r.getPhases())).collect(Collectors.toList());
-        }
-        return filteredLootRules;
+        return getSnapshot(world).getLootRules();
     }
 
     public static List<ExperienceRule> getFilteredExperienceRuiles(World world) {
-        if (filteredExperienceRuiles == null) {
-            Set<String> phases = DataStorage.getData(world).getPhases();
-            filteredExperienceRuiles = experienceRules.stream().filter(r -> phases.containsAll(r.getPhases())).collect(Collectors.toList());
-        }
-        return filteredExperienceRuiles;
+        return getSnapshot(world).getExperienceRules();
     }
 
     private static boolean exists(String file) {
@@ -102,8 +159,11 @@ public class RulesManager {
         if (!exists(file)) {
             return false;
         }
-        rules.clear();
-        readRules(null, file, SpawnRule::parse, rules);
+        List<SpawnRule> list = new ArrayList<>();
+        readRules(null, file, SpawnRule::parse, list);
+        synchronized (LOCK) {
+            ruleSet = ruleSet.copy().spawnRules(RuleCategory.of(list)).build();
+        }
         return true;
     }
 
@@ -111,8 +171,11 @@ public class RulesManager {
         if (!exists(file)) {
             return false;
         }
-        summonAidRules.clear();
-        readRules(null, file, SummonAidRule::parse, summonAidRules);
+        List<SummonAidRule> list = new ArrayList<>();
+        readRules(null, file, SummonAidRule::parse, list);
+        synchronized (LOCK) {
+            ruleSet = ruleSet.copy().summonAidRules(RuleCategory.of(list)).build();
+        }
         return true;
     }
 
@@ -120,8 +183,11 @@ public class RulesManager {
         if (!exists(file)) {
             return false;
         }
-        potentialSpawnRules.clear();
-        readRules(null, file, PotentialSpawnRule::parse, potentialSpawnRules);
+        List<PotentialSpawnRule> list = new ArrayList<>();
+        readRules(null, file, PotentialSpawnRule::parse, list);
+        synchronized (LOCK) {
+            ruleSet = ruleSet.copy().potentialSpawnRules(RuleCategory.of(list)).build();
+        }
         return true;
     }
 
@@ -129,31 +195,117 @@ public class RulesManager {
         if (!exists(file)) {
             return false;
         }
-        lootRules.clear();
-        readRules(null, file, LootRule::parse, lootRules);
+        List<LootRule> list = new ArrayList<>();
+        readRules(null, file, LootRule::parse, list);
+        synchronized (LOCK) {
+            ruleSet = ruleSet.copy().lootRules(RuleCategory.of(list)).build();
+        }
         return true;
     }
 
-    private static void readAllRules() {
+    // One rule file that is being read. The file is streamed on a background thread and every
+    // entry is handed to the server as soon as it is read. The rules are created there
+    private static class FileLoad<T> {
+        private final String filename;
+        private final RuleCategory.Builder<T> builder;  // Only used on the server
+        private final BiConsumer<RuleSet.Builder, RuleCategory<T>> setter;
+        private final Consumer<IntList> remap;          // Moves the statistics of reused rules or null
+        private final CompletableFuture<RuleFile> file;
+
+        private FileLoad(String filename, RuleCategory<T> previous, Function<JsonElement, T> parser,
+                         BiConsumer<RuleSet.Builder, RuleCategory<T>> setter, Consumer<IntList> remap, Executor server) {
+            this.filename = filename;
+            this.builder = new RuleCategory.Builder<>(previous, parser);
+            this.setter = setter;
+            this.remap = remap;
+            // A rule that failed before is never reused so its errors are reported again while the file is read
+            ErrorHandler.clearErrors(filename);
+            this.file = CompletableFuture.supplyAsync(() -> RuleFile.load(path, filename, previous,
+                    (location, entry, key) -> server.execute(() -> {
+                        ErrorHandler.startFile(filename);
+                        try {
+                            builder.add(location, entry, key);
+                        } finally {
+                            ErrorHandler.endFile();
+                        }
+                    })), Util.backgroundExecutor());
+        }
+
+        // Add the new category for this file to 'changes' (unless the file didn't change or failed)
+        private void install(List<Consumer<RuleSet.Builder>> changes) {
+            RuleFile ruleFile;
+            try {
+                ruleFile = file.join();
+            } catch (Exception e) {
+                // The previous rules are kept
+                ErrorHandler.startFile(filename);
+                try {
+                    ErrorHandler.error("JSON error in '" + filename + "': keeping the previous rules, check log for details (" + e.getMessage() + ")");
+                } finally {
+                    ErrorHandler.endFile();
+                }
+                InControl.setup.getLogger().log(Level.ERROR, "Error parsing '" + filename + "', keeping the previous rules", e);
+                return;
+            }
+            if (ruleFile.isUnchanged()) {
+                return;
+            }
+            RuleCategory<T> category = builder.build(ruleFile.getHash());
+            changes.add(b -> setter.accept(b, category));
+            if (remap != null) {
+                remap.accept(builder.getReused());
+            }
+        }
+    }
+
+    // Start reading the given files on background threads. Files are compared with (and rules
+    // are reused from) the rules in 'previous'. The rules are created on 'server'
+    private static List<FileLoad<?>> loadRuleFiles(Executor server, Collection<String> files, RuleSet previous) {
         File directory = new File(path + File.separator + "incontrol");
         if (!directory.exists()) {
             directory.mkdir();
         }
 
-        safeCall("spawn.json", () -> readRules(path, "spawn.json", SpawnRule::parse, rules));
-        safeCall("summonaid.json", () -> readRules(path, "summonaid.json", SummonAidRule::parse, summonAidRules));
-        safeCall("potentialspawn.json", () -> readRules(path, "potentialspawn.json", PotentialSpawnRule::parse, potentialSpawnRules));
-        safeCall("loot.json", () -> readRules(path, "loot.json", LootRule::parse, lootRules));
-        safeCall("experience.json", () -> readRules(path, "experience.json", ExperienceRule::parse, experienceRules));
-        safeCall("phases.json", () -> readRules(path, "phases.json", PhaseRule::parse, phaseRules));
+        List<FileLoad<?>> loads = new ArrayList<>();
+        if (files.contains("spawn.json")) {
+            loads.add(new FileLoad<>("spawn.json", previous.getSpawnCategory(), SpawnRule::parse, RuleSet.Builder::spawnRules, Statistics::remapSpawnStats, server));
+        }
+        if (files.contains("summonaid.json")) {
+            loads.add(new FileLoad<>("summonaid.json", previous.getSummonAidCategory(), SummonAidRule::parse, RuleSet.Builder::summonAidRules, null, server));
+        }
+        if (files.contains("potentialspawn.json")) {
+            loads.add(new FileLoad<>("potentialspawn.json", previous.getPotentialSpawnCategory(), PotentialSpawnRule::parse, RuleSet.Builder::potentialSpawnRules, null, server));
+        }
+        if (files.contains("loot.json")) {
+            loads.add(new FileLoad<>("loot.json", previous.getLootCategory(), LootRule::parse, RuleSet.Builder::lootRules, null, server));
+        }
+        if (files.contains("experience.json")) {
+            loads.add(new FileLoad<>("experience.json", previous.getExperienceCategory(), ExperienceRule::parse, RuleSet.Builder::experienceRules, null, server));
+        }
+        if (files.contains("phases.json")) {
+            loads.add(new FileLoad<>("phases.json", previous.getPhaseCategory(), PhaseRule::parse, RuleSet.Builder::phaseRules, null, server));
+        }
+        if (files.contains("spawner.json")) {
+            loads.add(new FileLoad<>("spawner.json", previous.getSpawnerCategory(), SpawnerParser::parse, RuleSet.Builder::spawnerRules, Statistics::remapSpawnerStats, server));
+        }
+        return loads;
     }
 
-    private static void safeCall(String name, Runnable code) {
-        try {
-            code.run();
-        } catch (Exception e) {
-            ErrorHandler.error("JSON error in '" + name + "': check log for details (" + e.getMessage() + ")");
-            InControl.setup.getLogger().log(Level.ERROR, "Error parsing '" + name + "'", e);
+    // Install the rules of all files together. Files that didn't change or failed to load keep the
+    // rules that we had for them. Rules that didn't change are reused and their statistics are moved
+    // to the new position of the rule
+    private static void installRules(List<FileLoad<?>> loads) {
+        List<Consumer<RuleSet.Builder>> changes = new ArrayList<>();
+        for (FileLoad<?> load : loads) {
+            load.install(changes);
+        }
+
+        synchronized (LOCK) {
+            // Reloads never overlap so this is 'previous' unless rules from a custom file were read
+            // in the mean time. Those are kept unless their category was just reloaded
+            RuleSet.Builder builder = ruleSet.copy();
+            changes.forEach(change -> change.accept(builder));
+            ruleSet = builder.build();
         }
     }
 
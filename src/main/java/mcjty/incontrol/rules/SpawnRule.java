@@ -6,6 +6,7 @@ import mcjty.incontrol.InControl;
 import mcjty.incontrol.compat.ModRuleCompatibilityLayer;
 import mcjty.incontrol.data.PhaseTools;
 import mcjty.incontrol.rules.support.GenericRuleEvaluator;
+import mcjty.incontrol.tools.rules.EventContext;
 import mcjty.incontrol.tools.rules.IEventQuery;
 import mcjty.incontrol.tools.rules.IModRuleCompatibilityLayer;
 import mcjty.incontrol.tools.rules.RuleBase;
@@ -13,6 +14,7 @@ import mcjty.incontrol.tools.typed.Attribute;
 import mcjty.incontrol.tools.typed.AttributeMap;
 import mcjty.incontrol.tools.typed.GenericAttributeMapFactory;
 import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.ItemStack;
@@ -279,6 +281,19 @@ public class SpawnRule extends RuleBase<RuleBase.EventGetter> {
         return ruleEvaluator.match(event, EVENT_QUERY_JOIN);
     }
 
+    /// Match with a context that is shared between all rules for the same event
+    public boolean match(EventContext ctx) {
+        return ruleEvaluator.match(ctx);
+    }
+
+    public boolean hasTypeFilter() {
+        return ruleEvaluator.hasTypeFilter();
+    }
+
+    public boolean canMatch(EntityType<?> type) {
+        return ruleEvaluator.canMatch(type);
+    }
+
     public void action(LivingSpawnEvent.CheckSpawn event) {
         EventGetter getter = new EventGetter() {
             @Override
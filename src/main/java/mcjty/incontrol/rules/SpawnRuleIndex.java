@@ -0,0 +1,104 @@
+package mcjty.incontrol.rules;
+
+import net.minecraft.entity.EntityType;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * For every entity type the ordered subset of spawn rules that can possibly match it
+ * (based on the 'mob' and 'mod' conditions). Rules without such a condition are part of
+ * every subset. The position of every rule in spawn.json is kept so that statistics and
+ * debug output keep using the same rule numbers
+ */
+public class SpawnRuleIndex {
+
+    public static class Bucket {
+        private final SpawnRule[] rules;
+        private final int[] indices;
+
+        private Bucket(SpawnRule[] rules, int[] indices) {
+            this.rules = rules;
+            this.indices = indices;
+        }
+
+        public int size() {
+            return rules.length;
+        }
+
+        public SpawnRule getRule(int i) {
+            return rules[i];
+        }
+
+        // The index of the rule in the full list of rules
+        public int getIndex(int i) {
+            return indices[i];
+        }
+    }
+
+    private final Bucket all;
+    private final Bucket generic;
+    private final Bucket[] buckets;     // Indexed by EntityTypeIndex type index
+    // Buckets for types that we didn't know about when this index was made. Built when first needed
+    private final Map<EntityType<?>, Bucket> unknown = new ConcurrentHashMap<>();
+
+    /// 'indices' are the positions of the rules in spawn.json
+    public SpawnRuleIndex(SpawnRule[] rules, int[] indices) {
+        all = new Bucket(rules, indices);
+        boolean hasTypeFilters = Arrays.stream(rules).anyMatch(SpawnRule::hasTypeFilter);
+        generic = build(null);
+        buckets = new Bucket[EntityTypeIndex.getTypeCount()];
+        if (hasTypeFilters) {
+            for (EntityType<?> type : ForgeRegistries.ENTITIES.getValues()) {
+                int idx = EntityTypeIndex.getTypeIndex(type);
+                if (idx >= 0 && idx < buckets.length) {
+                    buckets[idx] = build(type);
+                }
+            }
+        } else {
+            Arrays.fill(buckets, generic);
+        }
+    }
+
+    public Bucket getAll() {
+        return all;
+    }
+
+    public Bucket getRules(EntityType<?> type) {
+        int idx = EntityTypeIndex.getTypeIndex(type);
+        if (idx >= 0 && idx < buckets.length && buckets[idx] != null) {
+            return buckets[idx];
+        }
+        return unknown.computeIfAbsent(type, this::build);
+    }
+
+    // Build the bucket for a type. With type == null only the rules without type filter are taken.
+    // If the result is the same as the generic bucket that one is reused
+    private Bucket build(EntityType<?> type) {
+        SpawnRule[] r = new SpawnRule[all.size()];
+        int[] indices = new int[all.size()];
+        int cnt = 0;
+        boolean onlyGeneric = true;
+        for (int i = 0; i < all.size(); i++) {
+            SpawnRule rule = all.getRule(i);
+            boolean ok;
+            if (!rule.hasTypeFilter()) {
+                ok = true;
+            } else {
+                ok = type != null && rule.canMatch(type);
+                onlyGeneric &= !ok;
+            }
+            if (ok) {
+                r[cnt] = rule;
+                indices[cnt] = all.getIndex(i);
+                cnt++;
+            }
+        }
+        if (onlyGeneric && generic != null) {
+            return generic;
+        }
+        return new Bucket(Arrays.copyOf(r, cnt), Arrays.copyOf(indices, cnt));
+    }
+}
@@ -10,7 +10,7 @@ import mcjty.incontrol.compat.ModRuleCompatibilityLayer;
 import mcjty.incontrol.data.DataStorage;
 import mcjty.incontrol.spawner.SpawnerSystem;
 import mcjty.incontrol.tools.rules.CommonRuleEvaluator;
-import mcjty.incontrol.tools.rules.IEventQuery;
+import mcjty.incontrol.tools.rules.ICheck;
 import mcjty.incontrol.tools.typed.AttributeMap;
 import mcjty.incontrol.tools.varia.Tools;
 import net.minecraft.entity.Entity;
@@ -31,21 +31,43 @@ import org.apache.commons.lang3.StringUtils;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+import java.util.function.ToIntFunction;
 
 import static mcjty.incontrol.rules.support.RuleKeys.*;
 
 
 public class GenericRuleEvaluator extends CommonRuleEvaluator {
 
+    // The mobs and mods this rule is restricted to (null if not restricted). These are set
+    // from addChecks() which runs from the super constructor so they must not have an initializer
+    private Set<EntityType<?>> mobFilter;
+    private Set<String> modFilter;
+
     public GenericRuleEvaluator(AttributeMap map) {
         super(map, InControl.setup.getLogger(), new ModRuleCompatibilityLayer());
     }
 
+    /// Return true if this rule has a 'mob' or 'mod' condition that limits the entity types it can match
+    public boolean hasTypeFilter() {
+        return mobFilter != null || modFilter != null;
+    }
+
+    /// Return false if this rule can never match entities of this type
+    public boolean canMatch(EntityType<?> type) {
+        if (mobFilter != null && !mobFilter.contains(type)) {
+            return false;
+        }
+        if (modFilter != null && !modFilter.contains(type.getRegistryName().getNamespace())) {
+            return false;
+        }
+        return true;
+    }
+
     @Override
     protected void addChecks(AttributeMap map) {
         super.addChecks(map);
@@ -77,8 +99,8 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
 
     private void addCanSpawnHereCheck(boolean c) {
         if (c) {
-            checks.add((event, query) -> {
-                Entity entity = query.getEntity(event);
+            checks.add(ctx -> {
+                Entity entity = ctx.getEntity();
                 if (entity instanceof MobEntity) {
                     return MobEntity.checkMobSpawnRules((EntityType<? extends MobEntity>) entity.getType(), entity.getCommandSenderWorld(), SpawnReason.NATURAL, entity.blockPosition(), null);
                 } else {
@@ -86,8 +108,8 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
                 }
             });
         } else {
-            checks.add((event, query) -> {
-                Entity entity = query.getEntity(event);
+            checks.add(ctx -> {
+                Entity entity = ctx.getEntity();
                 if (entity instanceof MobEntity) {
                     return !MobEntity.checkMobSpawnRules((EntityType<? extends MobEntity>) entity.getType(), entity.getCommandSenderWorld(), SpawnReason.NATURAL, entity.blockPosition(), null);
                 } else {
@@ -97,46 +119,47 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
         }
     }
 
+    // Order sensitive: the bounding box of the mob can reach into a chunk that isn't loaded
     private void addNotCollidingCheck(boolean c) {
         if (c) {
-            checks.add((event, query) -> {
-                Entity entity = query.getEntity(event);
+            checks.add(ICheck.orderSensitive(ctx -> {
+                Entity entity = ctx.getEntity();
                 if (entity instanceof MobEntity) {
                     return ((MobEntity) entity).checkSpawnObstruction(entity.getCommandSenderWorld());
                 } else {
                     return false;
                 }
-            });
+            }));
         } else {
-            checks.add((event, query) -> {
-                Entity entity = query.getEntity(event);
+            checks.add(ICheck.orderSensitive(ctx -> {
+                Entity entity = ctx.getEntity();
                 if (entity instanceof MobEntity) {
                     return !((MobEntity) entity).checkSpawnObstruction(entity.getCommandSenderWorld());
                 } else {
                     return true;
                 }
-            });
+            }));
         }
     }
 
     private void addInControlCheck(boolean c) {
-        checks.add((event, query) -> c == (SpawnerSystem.busySpawning != null));
+        checks.add(ctx -> c == (SpawnerSystem.busySpawning != null));
     }
 
     private void addSpawnerCheck(boolean c) {
         if (c) {
-            checks.add((event, query) -> {
-                if (event instanceof LivingSpawnEvent.CheckSpawn) {
-                    LivingSpawnEvent.CheckSpawn checkSpawn = (LivingSpawnEvent.CheckSpawn) event;
+            checks.add(ctx -> {
+                if (ctx.getEvent() instanceof LivingSpawnEvent.CheckSpawn) {
+                    LivingSpawnEvent.CheckSpawn checkSpawn = (LivingSpawnEvent.CheckSpawn) ctx.getEvent();
                     return checkSpawn.isSpawner();
                 } else {
                     return false;
                 }
             });
         } else {
-            checks.add((event, query) -> {
-                if (event instanceof LivingSpawnEvent.CheckSpawn) {
-                    LivingSpawnEvent.CheckSpawn checkSpawn = (LivingSpawnEvent.CheckSpawn) event;
+            checks.add(ctx -> {
+                if (ctx.getEvent() instanceof LivingSpawnEvent.CheckSpawn) {
+                    LivingSpawnEvent.CheckSpawn checkSpawn = (LivingSpawnEvent.CheckSpawn) ctx.getEvent();
                     return !checkSpawn.isSpawner();
                 } else {
                     return false;
@@ -147,17 +170,17 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
 
     private void addHostileCheck(boolean hostile) {
         if (hostile) {
-            checks.add((event, query) -> query.getEntity(event) instanceof IMob);
+            checks.add(ctx -> ctx.getEntity() instanceof IMob);
         } else {
-            checks.add((event, query) -> !(query.getEntity(event) instanceof IMob));
+            checks.add(ctx -> !(ctx.getEntity() instanceof IMob));
         }
     }
 
     private void addPassiveCheck(boolean passive) {
         if (passive) {
-            checks.add((event, query) -> (query.getEntity(event) instanceof AnimalEntity && !(query.getEntity(event) instanceof IMob)));
+            checks.add(ctx -> (ctx.getEntity() instanceof AnimalEntity && !(ctx.getEntity() instanceof IMob)));
         } else {
-            checks.add((event, query) -> !(query.getEntity(event) instanceof AnimalEntity && !(query.getEntity(event) instanceof IMob)));
+            checks.add(ctx -> !(ctx.getEntity() instanceof AnimalEntity && !(ctx.getEntity() instanceof IMob)));
         }
     }
 
@@ -169,10 +192,11 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
             }
             EntityType<?> type = ForgeRegistries.ENTITIES.getValue(new ResourceLocation(id));
             if (type != null) {
-                checks.add((event, query) -> type.equals(query.getEntity(event).getType()));
+                mobFilter = Collections.singleton(type);
+                checks.add(ctx -> type.equals(ctx.getEntity().getType()));
             }
         } else {
-            Set<EntityType> classes = new HashSet<>();
+            Set<EntityType<?>> classes = new HashSet<>();
             for (String id : mobs) {
                 EntityType<?> type = ForgeRegistries.ENTITIES.getValue(new ResourceLocation(id));
                 if (type != null) {
@@ -182,7 +206,8 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
                 }
             }
             if (!classes.isEmpty()) {
-                checks.add((event, query) -> classes.contains(query.getEntity(event).getType()));
+                mobFilter = classes;
+                checks.add(ctx -> classes.contains(ctx.getEntity().getType()));
             }
         }
     }
@@ -190,8 +215,9 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
     private void addModsCheck(List<String> mods) {
         if (mods.size() == 1) {
             String modid = mods.get(0);
-            checks.add((event, query) -> {
-                String mod = query.getEntity(event).getType().getRegistryName().getNamespace();
+            modFilter = Collections.singleton(modid);
+            checks.add(ctx -> {
+                String mod = ctx.getEntity().getType().getRegistryName().getNamespace();
                 return modid.equals(mod);
             });
         } else {
@@ -199,8 +225,9 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
             for (String modid : mods) {
                 modids.add(modid);
             }
-            checks.add((event, query) -> {
-                String mod = query.getEntity(event).getType().getRegistryName().getNamespace();
+            modFilter = modids;
+            checks.add(ctx -> {
+                String mod = ctx.getEntity().getType().getRegistryName().getNamespace();
                 return modids.contains(mod);
             });
         }
@@ -369,14 +396,14 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
             return;
         }
 
-        BiFunction<IWorld, Entity, Integer> counter = getCounter(info);
-        Function<IWorld, Integer> amountAdjuster = getAmountAdjuster(info, info.amount);
+        ToIntBiFunction<IWorld, Entity> counter = getCounter(info);
+        ToIntFunction<IWorld> amountAdjuster = getAmountAdjuster(info, info.amount);
 
-        checks.add((event, query) -> {
-            IWorld world = query.getWorld(event);
-            Entity entity = query.getEntity(event);
-            int count = counter.apply(world, entity);
-            int amount = amountAdjuster.apply(world);
+        checks.add(ctx -> {
+            IWorld world = ctx.getWorld();
+            Entity entity = ctx.getEntity();
+            int count = counter.applyAsInt(world, entity);
+            int amount = amountAdjuster.applyAsInt(world);
             return count >= amount;
         });
     }
@@ -384,14 +411,14 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
     private void addMaxCountCheck(String json) {
         CountInfo info = parseCountInfo(json);
 
-        BiFunction<IWorld, Entity, Integer> counter = getCounter(info);
-        Function<IWorld, Integer> amountAdjuster = getAmountAdjuster(info, info.amount);
+        ToIntBiFunction<IWorld, Entity> counter = getCounter(info);
+        ToIntFunction<IWorld> amountAdjuster = getAmountAdjuster(info, info.amount);
 
-        checks.add((event, query) -> {
-            IWorld world = query.getWorld(event);
-            Entity entity = query.getEntity(event);
-            int count = counter.apply(world, entity);
-            int amount = amountAdjuster.apply(world);
+        checks.add(ctx -> {
+            IWorld world = ctx.getWorld();
+            Entity entity = ctx.getEntity();
+            int count = counter.applyAsInt(world, entity);
+            int amount = amountAdjuster.applyAsInt(world);
             return count < amount;
         });
     }
@@ -401,8 +428,8 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
             return;
         }
 
-        checks.add((event, query) -> {
-            IWorld world = query.getWorld(event);
+        checks.add(ctx -> {
+            IWorld world = ctx.getWorld();
             DataStorage data = DataStorage.getData(Tools.getServerWorld(world));
             int amount = data.getDaycounter();
             return amount % count == 0;
@@ -414,8 +441,8 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
             return;
         }
 
-        checks.add((event, query) -> {
-            IWorld world = query.getWorld(event);
+        checks.add(ctx -> {
+            IWorld world = ctx.getWorld();
             DataStorage data = DataStorage.getData(Tools.getServerWorld(world));
             int amount = data.getDaycounter();
             return amount >= count;
@@ -427,16 +454,16 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
             return;
         }
 
-        checks.add((event, query) -> {
-            IWorld world = query.getWorld(event);
+        checks.add(ctx -> {
+            IWorld world = ctx.getWorld();
             DataStorage data = DataStorage.getData(Tools.getServerWorld(world));
             int amount = data.getDaycounter();
             return amount < count;
         });
     }
 
-    private Function<IWorld, Integer> getAmountAdjuster(CountInfo info, int infoAmount) {
-        Function<IWorld, Integer> amountAdjuster;
+    private ToIntFunction<IWorld> getAmountAdjuster(CountInfo info, int infoAmount) {
+        ToIntFunction<IWorld> amountAdjuster;
         if (info.scaledPerChunk) {
             amountAdjuster = world -> infoAmount * InControl.setup.cache.getValidSpawnChunks(world) / 289;
         } else if (info.scaledPerPlayer) {
@@ -447,8 +474,8 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
         return amountAdjuster;
     }
 
-    private BiFunction<IWorld, Entity, Integer> getCounter(CountInfo info) {
-        BiFunction<IWorld, Entity, Integer> counter;
+    private ToIntBiFunction<IWorld, Entity> getCounter(CountInfo info) {
+        ToIntBiFunction<IWorld, Entity> counter;
         if (info.mod != null) {
             if (info.hostile) {
                 counter = (world, entity) -> InControl.setup.cache.getCountPerModHostile(world, info.mod);
@@ -486,9 +513,9 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
 
     private void addPlayerCheck(boolean asPlayer) {
         if (asPlayer) {
-            checks.add((event, query) -> query.getAttacker(event) instanceof PlayerEntity);
+            checks.add(ctx -> ctx.getAttacker() instanceof PlayerEntity);
         } else {
-            checks.add((event, query) -> query.getAttacker(event) instanceof PlayerEntity);
+            checks.add(ctx -> ctx.getAttacker() instanceof PlayerEntity);
         }
     }
 
@@ -523,71 +550,60 @@ public class GenericRuleEvaluator extends CommonRuleEvaluator {
 
     private void addRealPlayerCheck(boolean asPlayer) {
         if (asPlayer) {
-            checks.add((event, query) -> query.getAttacker(event) == null ? false : isRealPlayer(query.getAttacker(event)));
+            checks.add(ctx -> ctx.getAttacker() == null ? false : isRealPlayer(ctx.getAttacker()));
         } else {
-            checks.add((event, query) -> query.getAttacker(event) == null ? true : !isRealPlayer(query.getAttacker(event)));
+            checks.add(ctx -> ctx.getAttacker() == null ? true : !isRealPlayer(ctx.getAttacker()));
         }
     }
 
     private void addFakePlayerCheck(boolean asPlayer) {
         if (asPlayer) {
-            checks.add((event, query) -> query.getAttacker(event) == null ? false : isFakePlayer(query.getAttacker(event)));
+            checks.add(ctx -> ctx.getAttacker() == null ? false : isFakePlayer(ctx.getAttacker()));
         } else {
-            checks.add((event, query) -> query.getAttacker(event) == null ? true : !isFakePlayer(query.getAttacker(event)));
+            checks.add(ctx -> ctx.getAttacker() == null ? true : !isFakePlayer(ctx.getAttacker()));
         }
     }
 
     private void addExplosionCheck(boolean explosion) {
         if (explosion) {
-            checks.add((event, query) -> query.getSource(event) == null ? false : query.getSource(event).isExplosion());
+            checks.add(ctx -> ctx.getSource() == null ? false : ctx.getSource().isExplosion());
         } else {
-            checks.add((event, query) -> query.getSource(event) == null ? true : !query.getSource(event).isExplosion());
+            checks.add(ctx -> ctx.getSource() == null ? true : !ctx.getSource().isExplosion());
         }
     }
 
     private void addProjectileCheck(boolean projectile) {
         if (projectile) {
-            checks.add((event, query) -> query.getSource(event) == null ? false : query.getSource(event).isProjectile());
+            checks.add(ctx -> ctx.getSource() == null ? false : ctx.getSource().isProjectile());
         } else {
-            checks.add((event, query) -> query.getSource(event) == null ? true : !query.getSource(event).isProjectile());
+            checks.add(ctx -> ctx.getSource() == null ? true : !ctx.getSource().isProjectile());
         }
     }
 
     private void addFireCheck(boolean fire) {
         if (fire) {
-            checks.add((event, query) -> query.getSource(event) == null ? false : query.getSource(event).isFire());
+            checks.add(ctx -> ctx.getSource() == null ? false : ctx.getSource().isFire());
         } else {
-            checks.add((event, query) -> query.getSource(event) == null ? true : !query.getSource(event).isFire());
+            checks.add(ctx -> ctx.getSource() == null ? true : !ctx.getSource().isFire());
         }
     }
 
     private void addMagicCheck(boolean magic) {
         if (magic) {
-            checks.add((event, query) -> query.getSource(event) == null ? false : query.getSource(event).isMagic());
+            checks.add(ctx -> ctx.getSource() == null ? false : ctx.getSource().isMagic());
         } else {
-            checks.add((event, query) -> query.getSource(event) == null ? true : !query.getSource(event).isMagic());
+            checks.add(ctx -> ctx.getSource() == null ? true : !ctx.getSource().isMagic());
         }
     }
 
     private void addSourceCheck(List<String> sources) {
         Set<String> sourceSet = new HashSet<>(sources);
-        checks.add((event, query) -> {
-            if (query.getSource(event) == null) {
+        checks.add(ctx -> {
+            if (ctx.getSource() == null) {
                 return false;
             }
-            return sourceSet.contains(query.getSource(event).getMsgId());
+            return sourceSet.contains(ctx.getSource().getMsgId());
         });
     }
 
-
-    @Override
-    public boolean match(Object event, IEventQuery query) {
-        for (BiFunction<Object, IEventQuery, Boolean> rule : checks) {
-            if (!rule.apply(event, query)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
 }
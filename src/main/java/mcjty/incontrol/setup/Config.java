@@ -0,0 +1,59 @@
+package mcjty.incontrol.setup;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+import net.minecraftforge.fml.ModLoadingContext;
+import net.minecraftforge.fml.config.ModConfig;
+
+public class Config {
+
+    public static final String CATEGORY_GENERAL = "general";
+
+    public static ForgeConfigSpec.IntValue CENSUS_CHECK_INTERVAL;
+    public static ForgeConfigSpec.BooleanValue ADAPTIVE_CHECK_ORDER;
+    public static ForgeConfigSpec.IntValue STRUCTURE_CACHE_SIZE;
+    public static ForgeConfigSpec.BooleanValue PRECISE_STRUCTURES;
+    public static ForgeConfigSpec.IntValue SPAWNER_TICK_BUDGET;
+    public static ForgeConfigSpec.BooleanValue SPAWNER_TWO_PHASE;
+    public static ForgeConfigSpec.IntValue SPAWNER_STATS_INTERVAL;
+    public static ForgeConfigSpec.BooleanValue AUTO_RELOAD;
+    public static ForgeConfigSpec.IntValue AUTO_RELOAD_DELAY;
+
+    public static ForgeConfigSpec COMMON_CONFIG;
+
+    public static void register() {
+        ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+        builder.comment("General settings").push(CATEGORY_GENERAL);
+        CENSUS_CHECK_INTERVAL = builder
+                .comment("The mob counts used by InControl are kept up to date incrementally. Every this many seconds they are compared with the real world and corrected if needed. Use 0 to disable this check")
+                .defineInRange("censusCheckInterval", 60, 0, 1000000);
+        ADAPTIVE_CHECK_ORDER = builder
+                .comment("If true the conditions of every rule are timed now and then and reordered so that cheap conditions that often fail are tested first. The result of a rule doesn't change. Conditions that use the random generator or can load chunks ('random' and 'notcolliding') keep their position")
+                .define("adaptiveCheckOrder", true);
+        STRUCTURE_CACHE_SIZE = builder
+                .comment("The maximum number of chunks per dimension for which the structures are remembered (for the 'structure' condition). When this is exceeded the least recently used chunks are forgotten")
+                .defineInRange("structureCacheSize", 20000, 1, 10000000);
+        PRECISE_STRUCTURES = builder
+                .comment("If true the 'structure' condition tests if the position is inside one of the pieces of the structure instead of only testing if the chunk has the structure. This uses more memory")
+                .define("preciseStructures", false);
+        SPAWNER_TICK_BUDGET = builder
+                .comment("The maximum time (in microseconds) that the spawner (spawner.json) may use per dimension per tick. Rules that don't fit are done in the next tick. Use 0 for no limit")
+                .defineInRange("spawnerTickBudget", 2000, 0, 1000000);
+        SPAWNER_TWO_PHASE = builder
+                .comment("If true the spawner first collects positions that pass the checks that don't need a mob (collision, spawn placement rules of the mob type, liquid and peaceful) and only then creates and spawns the mobs for those positions as a batch. The spawn placement rules are only checked in this mode (unless 'norestrictions' is set)")
+                .define("spawnerTwoPhase", false);
+        SPAWNER_STATS_INTERVAL = builder
+                .comment("If not 0 the spawner statistics (attempts, failures and time per rule) are written to spawnerstats.csv and spawnerstats.json in the incontrol-stats config directory every this many seconds")
+                .defineInRange("spawnerStatsInterval", 0, 0, 1000000);
+        AUTO_RELOAD = builder
+                .comment("If true the rule files in the incontrol config directory are watched while the server runs. Files that change are reloaded automatically (only those files)")
+                .define("autoReload", false);
+        AUTO_RELOAD_DELAY = builder
+                .comment("With 'autoReload' the rules are only reloaded after the files didn't change for this many milliseconds. This avoids reloading a file that is still being written")
+                .defineInRange("autoReloadDelay", 500, 0, 60000);
+        builder.pop();
+
+        COMMON_CONFIG = builder.build();
+        ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, COMMON_CONFIG);
+    }
+}
@@ -4,9 +4,9 @@ import mcjty.incontrol.ForgeEventHandlers;
 import mcjty.incontrol.InControl;
 import mcjty.incontrol.compat.EnigmaSupport;
 import mcjty.incontrol.compat.LostCitySupport;
+import mcjty.incontrol.rules.EntityTypeIndex;
 import mcjty.incontrol.rules.RuleCache;
 import mcjty.incontrol.rules.RulesManager;
-import mcjty.incontrol.spawner.SpawnerParser;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.ModList;
 import net.minecraftforge.fml.loading.FMLPaths;
@@ -22,18 +22,16 @@ public class ModSetup {
     public static boolean baubles = false;
     public static boolean enigma = false;
 
-    private Logger logger;
+    private final Logger logger = LogManager.getLogger(InControl.MODID);
     public RuleCache cache = new RuleCache();
 
     public void init() {
-        logger = LogManager.getLogger(InControl.MODID);
         setupModCompat();
 
         MinecraftForge.EVENT_BUS.register(new ForgeEventHandlers());
+        EntityTypeIndex.init();
         RulesManager.setRulePath(FMLPaths.CONFIGDIR.get());
         RulesManager.readRules();
-        SpawnerParser.setRulePath(FMLPaths.CONFIGDIR.get());
-        SpawnerParser.readRules("spawner.json");
     }
 
     public Logger getLogger() {
@@ -0,0 +1,52 @@
+package mcjty.incontrol.spawner;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.entity.EntityClassification;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.server.ServerWorld;
+
+/**
+ * For every biome a bitmask (by EntityClassification ordinal) of the classifications that
+ * have at least one mob in the spawn list of that biome. This lets the spawner skip rules
+ * with 'mobsfrombiome' for biomes and dimensions where that classification can't spawn anyway
+ */
+public class BiomeSpawnTable {
+
+    private static final Reference2IntOpenHashMap<Biome> MASKS = new Reference2IntOpenHashMap<>();
+
+    static {
+        MASKS.defaultReturnValue(-1);
+    }
+
+    public static void clear() {
+        MASKS.clear();
+    }
+
+    public static int getMask(Biome biome) {
+        int mask = MASKS.getInt(biome);
+        if (mask == -1) {
+            mask = 0;
+            for (EntityClassification classification : EntityClassification.values()) {
+                if (!biome.getMobSettings().getMobs(classification).isEmpty()) {
+                    mask |= bit(classification);
+                }
+            }
+            MASKS.put(biome, mask);
+        }
+        return mask;
+    }
+
+    // The classifications that can spawn in any biome that this dimension can generate
+    public static int getDimensionMask(World world) {
+        int mask = 0;
+        for (Biome biome : ((ServerWorld) world).getChunkSource().getGenerator().getBiomeSource().possibleBiomes()) {
+            mask |= getMask(biome);
+        }
+        return mask;
+    }
+
+    public static int bit(EntityClassification classification) {
+        return 1 << classification.ordinal();
+    }
+}
@@ -0,0 +1,209 @@
+package mcjty.incontrol.spawner;
+
+import net.minecraft.entity.EntityClassification;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.tags.FluidTags;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * A pool of candidate spawn positions around one player for one band (maxdist, minheight and
+ * maxheight) of spawner rules. Random columns around the player are examined (only in loaded
+ * chunks) when the pool is created, when the player has moved far enough and when a chunk near
+ * the player is loaded. The valid ground, water and lava positions that are found are remembered.
+ * Spawner rules then pick from the pool before searching the world themselves. Old entries are
+ * overwritten by new ones so the pool follows the player as it moves. A picked position must
+ * still be verified since the world can change
+ */
+public class SpawnPositionPool {
+
+    private static final int SIZE = 256;
+    private static final int INITIAL_SAMPLES = 64;
+    private static final int SAMPLES_PER_REFRESH = 16;
+    private static final int REFRESH_DISTANCE = 8;
+    private static final int PICKS = 16;
+
+    private final Band band;
+    private final Entries ground = new Entries();
+    private final Entries water = new Entries();
+    private final Entries lava = new Entries();
+
+    // Biome spawn masks (see BiomeSpawnTable) of the last SIZE sampled columns and for every
+    // classification in how many of those samples it can spawn
+    private final int[] biomeMasks = new int[SIZE];
+    private final int[] classificationCounts = new int[32];
+    private int biomeNext = 0;
+    private int biomeCount = 0;
+
+    // Where the player was when this pool was last refreshed
+    private BlockPos center = null;
+
+    private static class Entries {
+        private final long[] positions = new long[SIZE];
+        private int count = 0;
+        private int next = 0;
+
+        private void add(BlockPos pos) {
+            positions[next] = pos.asLong();
+            next = (next + 1) % SIZE;
+            count = Math.max(count, next == 0 ? SIZE : next);
+        }
+
+        // Pick a random position that satisfies the distance and height conditions or null if we didn't find one
+        @Nullable
+        private BlockPos pick(BlockPos center, SpawnerConditions conditions, Random random) {
+            if (count == 0) {
+                return null;
+            }
+            double min = (double) conditions.getMindist() * conditions.getMindist();
+            double max = (double) conditions.getMaxdist() * conditions.getMaxdist();
+            for (int i = 0; i < PICKS; i++) {
+                long p = positions[random.nextInt(count)];
+                int y = BlockPos.getY(p);
+                if (y < conditions.getMinheight() || y > conditions.getMaxheight()) {
+                    continue;
+                }
+                BlockPos pos = BlockPos.of(p);
+                double sqdist = pos.distSqr(center.getX(), center.getY(), center.getZ(), true);
+                if (sqdist >= min && sqdist <= max) {
+                    return pos;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Rules with the same maxdist, minheight and maxheight share their pools
+    public static class Band {
+        private final int radius;
+        private final int minheight;
+        private final int maxheight;
+
+        public Band(SpawnerConditions conditions) {
+            this.radius = conditions.getMaxdist();
+            this.minheight = conditions.getMinheight();
+            this.maxheight = conditions.getMaxheight();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Band band = (Band) o;
+            return radius == band.radius && minheight == band.minheight && maxheight == band.maxheight;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(radius, minheight, maxheight);
+        }
+    }
+
+    public SpawnPositionPool(Band band) {
+        this.band = band;
+    }
+
+    // True if this pool was never filled or the player moved far enough since the last refresh
+    public boolean needsRefresh(BlockPos pos) {
+        return center == null || center.distSqr(pos) >= REFRESH_DISTANCE * REFRESH_DISTANCE;
+    }
+
+    // Examine a few random columns around the center
+    public void refresh(World world, BlockPos center, Random random) {
+        int samples = this.center == null ? INITIAL_SAMPLES : SAMPLES_PER_REFRESH;
+        this.center = center;
+        int radius = band.radius;
+        for (int i = 0; i < samples; i++) {
+            int x = center.getX() + random.nextInt(radius * 2 + 1) - radius;
+            int z = center.getZ() + random.nextInt(radius * 2 + 1) - radius;
+            sample(world, center, x, z, random);
+        }
+    }
+
+    // Examine a random column of a chunk that was just loaded if it is close enough to the center
+    public void addChunk(World world, BlockPos center, int chunkX, int chunkZ, Random random) {
+        int x = (chunkX << 4) + random.nextInt(16);
+        int z = (chunkZ << 4) + random.nextInt(16);
+        if (Math.abs(x - center.getX()) <= band.radius && Math.abs(z - center.getZ()) <= band.radius) {
+            sample(world, center, x, z, random);
+        }
+    }
+
+    private void sample(World world, BlockPos center, int x, int z, Random random) {
+        if (!world.getChunkSource().hasChunk(x >> 4, z >> 4)) {
+            return;
+        }
+        int radius = band.radius;
+        int minheight = Math.max(0, band.minheight);
+        int maxheight = Math.min(world.getMaxBuildHeight(), band.maxheight);
+        addBiomeMask(BiomeSpawnTable.getMask(world.getBiome(new BlockPos(x, center.getY(), z))));
+        BlockPos pos = SpawnerSystem.getValidSpawnablePosition(world, x, z, minheight, maxheight);
+        if (pos != null) {
+            ground.add(pos);
+        }
+        int ymin = Math.max(minheight, center.getY() - radius);
+        int ymax = Math.min(maxheight - 1, center.getY() + radius);
+        if (ymin <= ymax) {
+            BlockPos p = new BlockPos(x, ymin + random.nextInt(ymax - ymin + 1), z);
+            FluidState fluid = world.getFluidState(p);
+            if (fluid.is(FluidTags.WATER)) {
+                water.add(p);
+            } else if (fluid.is(FluidTags.LAVA)) {
+                lava.add(p);
+            }
+        }
+    }
+
+    private void addBiomeMask(int mask) {
+        if (biomeCount == SIZE) {
+            updateCounts(biomeMasks[biomeNext], -1);
+        } else {
+            biomeCount++;
+        }
+        biomeMasks[biomeNext] = mask;
+        updateCounts(mask, 1);
+        biomeNext = (biomeNext + 1) % SIZE;
+    }
+
+    private void updateCounts(int mask, int delta) {
+        for (int i = 0; mask != 0; i++, mask >>>= 1) {
+            if ((mask & 1) != 0) {
+                classificationCounts[i] += delta;
+            }
+        }
+    }
+
+    // Return false if none of the recently sampled biomes near the player can spawn this classification.
+    // If we don't know anything yet we return true
+    public boolean canSpawnNearby(EntityClassification classification) {
+        return biomeCount == 0 || classificationCounts[classification.ordinal()] > 0;
+    }
+
+    @Nullable
+    public BlockPos pickGround(BlockPos center, SpawnerConditions conditions, Random random) {
+        return ground.pick(center, conditions, random);
+    }
+
+    // Pick from the water or lava positions depending on the conditions ('inliquid' can use both)
+    @Nullable
+    public BlockPos pickLiquid(BlockPos center, SpawnerConditions conditions, Random random) {
+        if (conditions.isInWater()) {
+            return water.pick(center, conditions, random);
+        } else if (conditions.isInLava()) {
+            return lava.pick(center, conditions, random);
+        }
+        int total = water.count + lava.count;
+        if (total == 0) {
+            return null;
+        }
+        return random.nextInt(total) < water.count ? water.pick(center, conditions, random) : lava.pick(center, conditions, random);
+    }
+}
@@ -0,0 +1,91 @@
+package mcjty.incontrol.spawner;
+
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+
+import javax.annotation.Nullable;
+import java.util.Random;
+
+/**
+ * The shape of the area around a player in which a spawner rule looks for positions. A shape
+ * samples positions directly (uniformly) between mindist and maxdist and between minheight and
+ * maxheight so that no positions have to be thrown away
+ */
+public enum SpawnShape {
+    // Shell between two spheres around the player
+    SPHERE {
+        @Override
+        @Nullable
+        public BlockPos sample(BlockPos center, SpawnerConditions conditions, Random random) {
+            int mindist = conditions.getMindist();
+            int maxdist = conditions.getMaxdist();
+            int dymin = Math.max(conditions.getMinheight(), center.getY() - maxdist) - center.getY();
+            int dymax = Math.min(conditions.getMaxheight(), center.getY() + maxdist) - center.getY();
+            if (dymin > dymax) {
+                return null;
+            }
+            // The amount of positions at a given height is proportional to the area of the ring at that height
+            double total = 0;
+            for (int dy = dymin; dy <= dymax; dy++) {
+                total += ringArea(mindist, maxdist, dy);
+            }
+            if (total <= 0) {
+                return null;
+            }
+            double r = random.nextDouble() * total;
+            int dy = dymin;
+            for (; dy < dymax; dy++) {
+                r -= ringArea(mindist, maxdist, dy);
+                if (r < 0) {
+                    break;
+                }
+            }
+            double inner = Math.max(0, (double) mindist * mindist - (double) dy * dy);
+            double outer = Math.max(0, (double) maxdist * maxdist - (double) dy * dy);
+            return sampleRing(center, dy, inner, outer, random);
+        }
+    },
+    // Shell between two vertical cylinders around the player (the height is only limited by maxdist, minheight and maxheight)
+    RING {
+        @Override
+        @Nullable
+        public BlockPos sample(BlockPos center, SpawnerConditions conditions, Random random) {
+            int mindist = conditions.getMindist();
+            int maxdist = conditions.getMaxdist();
+            int ymin = Math.max(conditions.getMinheight(), center.getY() - maxdist);
+            int ymax = Math.min(conditions.getMaxheight(), center.getY() + maxdist);
+            if (ymin > ymax) {
+                return null;
+            }
+            int dy = ymin + random.nextInt(ymax - ymin + 1) - center.getY();
+            return sampleRing(center, dy, (double) mindist * mindist, (double) maxdist * maxdist, random);
+        }
+    };
+
+    @Nullable
+    public abstract BlockPos sample(BlockPos center, SpawnerConditions conditions, Random random);
+
+    @Nullable
+    public static SpawnShape getShape(String name) {
+        for (SpawnShape shape : values()) {
+            if (shape.name().equalsIgnoreCase(name)) {
+                return shape;
+            }
+        }
+        return null;
+    }
+
+    private static double ringArea(int mindist, int maxdist, int dy) {
+        return Math.max(0, (double) maxdist * maxdist - (double) dy * dy) - Math.max(0, (double) mindist * mindist - (double) dy * dy);
+    }
+
+    // Uniform position in the horizontal ring with the given squared radii at height center + dy
+    private static BlockPos sampleRing(BlockPos center, int dy, double innerSq, double outerSq, Random random) {
+        double radius = Math.sqrt(innerSq + random.nextDouble() * (outerSq - innerSq));
+        double angle = random.nextDouble() * Math.PI * 2;
+        return new BlockPos(
+                center.getX() + MathHelper.floor(Math.cos(angle) * radius),
+                center.getY() + dy,
+                center.getZ() + MathHelper.floor(Math.sin(angle) * radius));
+    }
+}
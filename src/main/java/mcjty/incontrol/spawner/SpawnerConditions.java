@@ -30,6 +30,7 @@ public class SpawnerConditions {
     private final int maxhostile;
     private final int maxpeaceful;
     private final int maxneutral;
+    private final SpawnShape shape;
 
     public static final SpawnerConditions DEFAULT = SpawnerConditions.create().build();
 
@@ -51,7 +52,8 @@ public class SpawnerConditions {
         MAXTOTAL,
         MAXHOSTILE,
         MAXPEACEFUL,
-        MAXNEUTRAL
+        MAXNEUTRAL,
+        SHAPE
     }
 
     private static final Map<String, Cmd> CONDITIONS = new HashMap<>();
@@ -81,6 +83,7 @@ public class SpawnerConditions {
         maxpeaceful = builder.maxpeaceful;
         maxneutral = builder.maxneutral;
         noRestrictions = builder.noRestrictions;
+        shape = builder.shape;
 
         validate();
     }
@@ -184,6 +187,10 @@ public class SpawnerConditions {
         return maxneutral;
     }
 
+    public SpawnShape getShape() {
+        return shape;
+    }
+
     public static Builder create() {
         return new Builder();
     }
@@ -279,6 +286,16 @@ public class SpawnerConditions {
                     builder.maxNeutral(object.getAsJsonPrimitive("maxneutral").getAsInt());
                     break;
                 }
+                case SHAPE: {
+                    String name = object.getAsJsonPrimitive("shape").getAsString();
+                    SpawnShape shape = SpawnShape.getShape(name);
+                    if (shape == null) {
+                        ErrorHandler.error("Invalid shape '" + name + "' for spawner rule!");
+                    } else {
+                        builder.shape(shape);
+                    }
+                    break;
+                }
             }
         }
     }
@@ -304,12 +321,18 @@ public class SpawnerConditions {
         private int maxhostile = -1;
         private int maxpeaceful = -1;
         private int maxneutral = -1;
+        private SpawnShape shape = SpawnShape.SPHERE;
 
         public Builder dimensions(RegistryKey<World>... dimensions) {
             Collections.addAll(this.dimensions, dimensions);
             return this;
         }
 
+        public Builder shape(SpawnShape shape) {
+            this.shape = shape;
+            return this;
+        }
+
         public Builder noRestrictions(boolean noRestrictions) {
             this.noRestrictions = noRestrictions;
             return this;
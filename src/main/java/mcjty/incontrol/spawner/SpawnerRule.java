@@ -22,6 +22,8 @@ public class SpawnerRule {
     private final int attempts;
     private final int minSpawn;
     private final int maxSpawn;
+    private final int interval;
+    private final int offset;
     private final Set<String> phases;
     private final SpawnerConditions conditions;
 
@@ -33,6 +35,8 @@ public class SpawnerRule {
         PERSECOND,
         ATTEMPTS,
         AMOUNT,
+        INTERVAL,
+        OFFSET,
         CONDITIONS
     }
 
@@ -54,6 +58,8 @@ public class SpawnerRule {
         conditions = builder.conditions;
         minSpawn = builder.minSpawn;
         maxSpawn = builder.maxSpawn;
+        interval = builder.interval;
+        offset = builder.offset;
         float w = 0;
         for (Float weight : weights) {
             w += weight;
@@ -101,6 +107,16 @@ public class SpawnerRule {
         return maxSpawn;
     }
 
+    // Amount of ticks between two executions of this rule
+    public int getInterval() {
+        return interval;
+    }
+
+    // The tick (within the interval) at which this rule runs. -1 if not given
+    public int getOffset() {
+        return offset;
+    }
+
     public SpawnerConditions getConditions() {
         return conditions;
     }
@@ -184,6 +200,19 @@ public class SpawnerRule {
                     }
                     break;
                 }
+                case INTERVAL: {
+                    int interval = object.getAsJsonPrimitive("interval").getAsInt();
+                    if (interval < 1) {
+                        ErrorHandler.error("Invalid interval " + interval + " for spawner rule!");
+                        interval = 1;
+                    }
+                    builder.interval(interval);
+                    break;
+                }
+                case OFFSET: {
+                    builder.offset(Math.max(0, object.getAsJsonPrimitive("offset").getAsInt()));
+                    break;
+                }
                 case CONDITIONS: {
                     JsonObject conditions = object.getAsJsonObject("conditions");
                     SpawnerConditions.Builder conditionsBuilder = SpawnerConditions.create();
@@ -214,6 +243,8 @@ public class SpawnerRule {
         private int attempts = 1;
         private int minSpawn = 1;
         private int maxSpawn = 1;
+        private int interval = 20;
+        private int offset = -1;
         private SpawnerConditions conditions = SpawnerConditions.DEFAULT;
 
         public Builder mobs(EntityType<?>... mobs) {
@@ -256,6 +287,16 @@ public class SpawnerRule {
             return this;
         }
 
+        public Builder interval(int interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        public Builder offset(int offset) {
+            this.offset = offset;
+            return this;
+        }
+
         public Builder conditions(SpawnerConditions conditions) {
             this.conditions = conditions;
             return this;
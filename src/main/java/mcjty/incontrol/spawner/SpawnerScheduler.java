@@ -0,0 +1,130 @@
+package mcjty.incontrol.spawner;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Decides which spawner rules of a dimension run in a given tick. Every rule has its own
+ * interval and an offset within that interval (by default rules are spread over their
+ * interval by rule index). Rules are kept in a timing wheel so that a tick only has to
+ * look at the rules in its own slot. Due rules are queued and executed as long as the
+ * time budget for this tick allows. Rules that don't fit are carried over to the next tick
+ */
+public class SpawnerScheduler {
+
+    private static final int WHEEL_SIZE = 64;      // Must be a power of two
+
+    private final List<SpawnerRule> rules = new ArrayList<>();
+    private final IntArrayList ruleNrs = new IntArrayList();     // Per rule: the index in spawner.json
+    private long[] nextTick = new long[0];          // Per rule: the tick at which it is due next
+
+    // Every slot contains the rules for which nextTick % WHEEL_SIZE is equal to that slot
+    private final IntArrayList[] wheel = new IntArrayList[WHEEL_SIZE];
+
+    private final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+    private boolean[] queued = new boolean[0];
+    private long tick = 0;
+
+    // When the rules were reloaded: the tick at which the rules of the previous scheduler were due.
+    // Rules that are reused keep their timing
+    private Reference2LongOpenHashMap<SpawnerRule> previousTicks = null;
+
+    public SpawnerScheduler() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new IntArrayList();
+        }
+    }
+
+    // Continue with the timing of a previous scheduler (after a reload)
+    public SpawnerScheduler(SpawnerScheduler previous) {
+        this();
+        tick = previous.tick;
+        previousTicks = new Reference2LongOpenHashMap<>();
+        previousTicks.defaultReturnValue(-1);
+        for (int i = 0; i < previous.rules.size(); i++) {
+            previousTicks.put(previous.rules.get(i), previous.nextTick[i]);
+        }
+    }
+
+    public void add(SpawnerRule rule, int ruleNr) {
+        int index = rules.size();
+        rules.add(rule);
+        ruleNrs.add(ruleNr);
+        queued = Arrays.copyOf(queued, rules.size());
+        nextTick = Arrays.copyOf(nextTick, rules.size());
+        long previous = previousTicks == null ? -1 : previousTicks.getLong(rule);
+        if (previous >= tick) {
+            schedule(index, previous);
+            return;
+        }
+        int interval = rule.getInterval();
+        int offset = rule.getOffset() == -1 ? index % interval : rule.getOffset() % interval;
+        // First tick >= the current tick that is at the right offset
+        long first = tick - (tick % interval) + offset;
+        if (first < tick) {
+            first += interval;
+        }
+        schedule(index, first);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    public SpawnerRule getRule(int index) {
+        return rules.get(index);
+    }
+
+    public int getRuleNr(int index) {
+        return ruleNrs.getInt(index);
+    }
+
+    private void schedule(int index, long t) {
+        nextTick[index] = t;
+        wheel[(int) (t & (WHEEL_SIZE - 1))].add(index);
+    }
+
+    // Queue the rules that are due in this tick
+    public void tick() {
+        previousTicks = null;
+        IntArrayList slot = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+        for (int i = slot.size() - 1; i >= 0; i--) {
+            int index = slot.getInt(i);
+            if (nextTick[index] == tick) {
+                // Remove by swapping with the last one. Order within a slot is not important
+                slot.set(i, slot.getInt(slot.size() - 1));
+                slot.removeInt(slot.size() - 1);
+                if (!queued[index]) {
+                    queued[index] = true;
+                    queue.enqueue(index);
+                }
+                schedule(index, tick + rules.get(index).getInterval());
+            }
+        }
+        tick++;
+    }
+
+    public boolean hasWork() {
+        return !queue.isEmpty();
+    }
+
+    // Execute queued rules until the budget (in nanoseconds, 0 for no limit) is used up. At least
+    // one rule is always executed so that a very low budget can't starve the spawner completely
+    public void execute(long budget, IntConsumer executor) {
+        long start = System.nanoTime();
+        while (!queue.isEmpty()) {
+            int index = queue.dequeueInt();
+            queued[index] = false;
+            executor.accept(index);
+            if (budget > 0 && System.nanoTime() - start >= budget) {
+                return;
+            }
+        }
+    }
+}
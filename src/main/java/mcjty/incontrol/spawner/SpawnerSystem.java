@@ -3,6 +3,8 @@ package mcjty.incontrol.spawner;
 import mcjty.incontrol.InControl;
 import mcjty.incontrol.data.DataStorage;
 import mcjty.incontrol.data.Statistics;
+import mcjty.incontrol.rules.RulesManager;
+import mcjty.incontrol.setup.Config;
 import mcjty.incontrol.tools.varia.Box;
 import net.minecraft.block.BlockState;
 import net.minecraft.entity.*;
@@ -16,61 +18,172 @@ import net.minecraft.util.RegistryKey;
 import net.minecraft.util.WeightedRandom;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.Difficulty;
+import net.minecraft.world.IWorld;
 import net.minecraft.world.IWorldReader;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.MobSpawnInfo;
+import net.minecraft.world.chunk.IChunk;
 import net.minecraft.world.gen.Heightmap;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraftforge.common.ForgeHooks;
 import net.minecraftforge.event.TickEvent;
+import org.apache.commons.lang3.tuple.Pair;
 
 import javax.annotation.Nullable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class SpawnerSystem {
 
     private static Map<RegistryKey<World>, WorldSpawnerData> worldData = new HashMap<>();
+    // The spawner rules (from the current RuleSet) that worldData was built for
+    private static List<SpawnerRule> installedRules = null;
+
+    // The dimensions that have spawner rules and for every dimension the chunks that were loaded
+    // since the last tick. The chunk load event only queues the chunk: the pools sample it on the
+    // next spawner tick
+    private static volatile Set<RegistryKey<World>> spawnerDimensions = Collections.emptySet();
+    private static final Map<RegistryKey<World>, Queue<ChunkPos>> loadedChunks = new ConcurrentHashMap<>();
+    private static final int LOADED_CHUNKS_PER_TICK = 16;
 
     private static Random random = new Random();
 
     public static MobEntity busySpawning = null;
 
-    public static void reloadRules() {
-        worldData.clear();
-        SpawnerParser.readRules("spawner.json");
+    // The rule that is currently executing (for statistics)
+    private static int currentRule = -1;
+    // Set when the last position search failed because of maxlocal
+    private static boolean localCapHit = false;
+
+    // Rebuild the data per dimension when a rule set with other spawner rules was installed
+    private static void updateRules() {
+        List<SpawnerRule> rules = RulesManager.getRuleSet().getSpawnerRules();
+        if (rules == installedRules) {
+            return;
+        }
+        installedRules = rules;
+
+        // Rules that didn't change are the same objects as before. They keep their timing
+        Map<RegistryKey<World>, WorldSpawnerData> data = new HashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            SpawnerRule rule = rules.get(i);
+            for (RegistryKey<World> dimension : rule.getConditions().getDimensions()) {
+                WorldSpawnerData spawnerData = data.computeIfAbsent(dimension, key -> new WorldSpawnerData(worldData.get(key)));
+                spawnerData.scheduler.add(rule, i);
+                spawnerData.bands.add(new SpawnPositionPool.Band(rule.getConditions()));
+            }
+        }
+        // Forget the pools of bands that no rule uses anymore
+        for (WorldSpawnerData spawnerData : data.values()) {
+            for (Map<SpawnPositionPool.Band, SpawnPositionPool> pools : spawnerData.pools.values()) {
+                pools.keySet().retainAll(spawnerData.bands);
+            }
+        }
+        BiomeSpawnTable.clear();
+        worldData = data;
+        spawnerDimensions = new HashSet<>(data.keySet());
     }
 
-    public static void addRule(SpawnerRule rule) {
-        for (RegistryKey<World> dimension : rule.getConditions().getDimensions()) {
-            worldData.computeIfAbsent(dimension, key -> new WorldSpawnerData()).rules.add(rule);
+    public static void onChunkLoad(IWorld world, IChunk chunk) {
+        if (world instanceof World && spawnerDimensions.contains(((World) world).dimension()) && !world.players().isEmpty()) {
+            loadedChunks.computeIfAbsent(((World) world).dimension(), key -> new ConcurrentLinkedQueue<>()).add(chunk.getPos());
         }
     }
 
     public static void checkRules(TickEvent.WorldTickEvent event) {
+        updateRules();
         World world = event.world;
         WorldSpawnerData spawnerData = worldData.get(world.dimension());
         if (spawnerData == null) {
             return;
         }
-        if (spawnerData.rules.isEmpty()) {
+        SpawnerScheduler scheduler = spawnerData.scheduler;
+        if (scheduler.isEmpty()) {
             return;
         }
 
-        spawnerData.counter--;
-        if (spawnerData.counter <= 0) {
-            spawnerData.counter = 20;
+        updatePools(world, spawnerData);
+
+        // Rules are spread over the ticks and whatever doesn't fit in the budget is done in the next tick
+        scheduler.tick();
+        if (scheduler.hasWork()) {
             DataStorage data = DataStorage.getData(world);
-            int i = 0;
-            for (SpawnerRule rule : spawnerData.rules) {
-                executeRule(i, rule, world, data);
-                i++;
+            long budget = Config.SPAWNER_TICK_BUDGET.get() * 1000L;
+            scheduler.execute(budget, i -> {
+                long start = System.nanoTime();
+                int ruleNr = scheduler.getRuleNr(i);
+                currentRule = ruleNr;
+                executeRule(ruleNr, scheduler.getRule(i), world, data);
+                currentRule = -1;
+                Statistics.addSpawnerTime(ruleNr, System.nanoTime() - start);
+            });
+        }
+    }
+
+    // Called once per tick. The pools of a player are only refreshed when that player moved far
+    // enough. A limited number of the chunks that were loaded since the last tick are sampled too
+    private static void updatePools(World world, WorldSpawnerData spawnerData) {
+        List<? extends PlayerEntity> players = world.players();
+        if (spawnerData.pools.size() > players.size()) {
+            Set<UUID> present = new HashSet<>();
+            for (PlayerEntity player : players) {
+                present.add(player.getUUID());
             }
+            spawnerData.pools.keySet().retainAll(present);
         }
+        for (PlayerEntity player : players) {
+            Map<SpawnPositionPool.Band, SpawnPositionPool> pools = spawnerData.pools.computeIfAbsent(player.getUUID(), k -> new HashMap<>());
+            BlockPos center = player.blockPosition();
+            for (SpawnPositionPool.Band band : spawnerData.bands) {
+                SpawnPositionPool pool = pools.computeIfAbsent(band, SpawnPositionPool::new);
+                if (pool.needsRefresh(center)) {
+                    pool.refresh(world, center, random);
+                }
+            }
+        }
+
+        Queue<ChunkPos> chunks = loadedChunks.get(world.dimension());
+        if (chunks != null) {
+            int sampled = 0;
+            ChunkPos chunk;
+            // Chunks that don't fit in this tick are dropped. The pools are only a sample anyway
+            while ((chunk = chunks.poll()) != null) {
+                if (sampled < LOADED_CHUNKS_PER_TICK) {
+                    sampled++;
+                    for (PlayerEntity player : players) {
+                        for (SpawnPositionPool pool : spawnerData.pools.get(player.getUUID()).values()) {
+                            pool.addChunk(world, player.blockPosition(), chunk.x, chunk.z, random);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int getDimensionMask(World world) {
+        WorldSpawnerData spawnerData = worldData.get(world.dimension());
+        if (spawnerData.dimensionMask == -1) {
+            spawnerData.dimensionMask = BiomeSpawnTable.getDimensionMask(world);
+        }
+        return spawnerData.dimensionMask;
+    }
+
+    @Nullable
+    private static SpawnPositionPool getPool(World world, PlayerEntity player, SpawnerConditions conditions) {
+        WorldSpawnerData spawnerData = worldData.get(world.dimension());
+        Map<SpawnPositionPool.Band, SpawnPositionPool> pools = spawnerData == null ? null : spawnerData.pools.get(player.getUUID());
+        return pools == null ? null : pools.get(new SpawnPositionPool.Band(conditions));
     }
 
     private static void executeRule(int ruleNr, SpawnerRule rule, World world, DataStorage data) {
+        if (rule.getMobsFromBiome() != null && (getDimensionMask(world) & BiomeSpawnTable.bit(rule.getMobsFromBiome())) == 0) {
+            // No biome in this dimension can spawn this classification
+            return;
+        }
         if (!data.getPhases().containsAll(rule.getPhases())) {
             return;
         }
@@ -80,24 +193,28 @@ public class SpawnerSystem {
             count += InControl.setup.cache.getCountPassive(world);
             count += InControl.setup.cache.getCountNeutral(world);
             if (count >= conditions.getMaxtotal()) {
+                Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.CAP);
                 return;
             }
         }
         if (conditions.getMaxhostile() != -1) {
             int count = InControl.setup.cache.getCountHostile(world);
             if (count >= conditions.getMaxhostile()) {
+                Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.CAP);
                 return;
             }
         }
         if (conditions.getMaxpeaceful() != -1) {
             int count = InControl.setup.cache.getCountPassive(world);
             if (count >= conditions.getMaxpeaceful()) {
+                Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.CAP);
                 return;
             }
         }
         if (conditions.getMaxneutral() != -1) {
             int count = InControl.setup.cache.getCountNeutral(world);
             if (count >= conditions.getMaxneutral()) {
+                Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.CAP);
                 return;
             }
         }
@@ -135,6 +252,7 @@ public class SpawnerSystem {
 
         if (mob != null) {
             if (checkTooMany(world, mob, conditions)) {
+                Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.CAP);
                 return;
             }
         }
@@ -144,56 +262,176 @@ public class SpawnerSystem {
         int desiredAmount = minspawn + ((minspawn == maxspawn) ? 0 : random.nextInt(maxspawn-minspawn));
         int spawned = 0;
 
+        if (Config.SPAWNER_TWO_PHASE.get()) {
+            executeTwoPhase(ruleNr, rule, world, mob, classification, desiredAmount);
+            return;
+        }
+
+        List<? extends PlayerEntity> players = world.players();
         for (int i = 0 ; i < rule.getAttempts() ; i++) {
-            BlockPos pos = getRandomPosition(world, mob, conditions);
+            Statistics.addSpawnerAttempt(ruleNr);
+            BlockPos pos = findPosition(world, players, mob, classification, conditions);
             if (pos != null) {
                 if (world.hasChunkAt(pos)) {
                     EntityType<?> spawnable = selectMob(world, mob, classification, conditions, pos);
                     if (spawnable == null) {
                         return;
                     }
-                    boolean nocollisions = world.noCollision(spawnable.getAABB(pos.getX(), pos.getY(), pos.getZ()));
-                    if (nocollisions) {
-                        Entity entity = spawnable.create(world);
-                        if (entity instanceof MobEntity) {
-                            if (!(entity instanceof IMob) || world.getDifficulty() != Difficulty.PEACEFUL) {
-                                MobEntity mobEntity = (MobEntity) entity;
-                                entity.moveTo(pos.getX(), pos.getY(), pos.getZ(), random.nextFloat() * 360.0F, 0.0F);
-                                busySpawning = mobEntity;   // @todo check in spawn rule
-                                int result = ForgeHooks.canEntitySpawn(mobEntity, world, pos.getX(), pos.getY(), pos.getZ(), null, SpawnReason.NATURAL);
-                                busySpawning = null;
-                                if (result != -1) {
-                                    if (canSpawn(world, mobEntity, conditions) && isNotColliding(world, mobEntity, conditions)) {
-                                        mobEntity.finalizeSpawn(world, world.getCurrentDifficultyAt(entity.blockPosition()), SpawnReason.NATURAL, null, null);
-                                        world.addFreshEntityWithPassengers(entity);
-                                        Statistics.addSpawnerStat(ruleNr);
-                                        spawned++;
-                                        if (spawned >= desiredAmount) {
-                                            return;
-                                        }
-                                    }
-                                }
+                    if (isValidPosition(ruleNr, world, spawnable, pos)) {
+                        if (trySpawn(ruleNr, world, spawnable, pos, conditions)) {
+                            spawned++;
+                            if (spawned >= desiredAmount) {
+                                return;
                             }
                         }
                     }
+                } else {
+                    Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.NO_CHUNK);
+                }
+            }
+        }
+    }
+
+    // First find positions using only checks that don't need an entity (collision, spawn placement
+    // rules, liquid and peaceful). Then create and spawn the entities for the positions that survived
+    private static void executeTwoPhase(int ruleNr, SpawnerRule rule, ServerWorld world, @Nullable EntityType<?> mob, @Nullable EntityClassification classification, int desiredAmount) {
+        SpawnerConditions conditions = rule.getConditions();
+        List<? extends PlayerEntity> players = world.players();
+        List<Pair<EntityType<?>, BlockPos>> batch = new ArrayList<>();
+        int spawned = 0;
+        int attempt = 0;
+        boolean done = false;
+        while (!done && spawned < desiredAmount && attempt < rule.getAttempts()) {
+            batch.clear();
+            while (batch.size() < desiredAmount - spawned && attempt < rule.getAttempts()) {
+                attempt++;
+                Statistics.addSpawnerAttempt(ruleNr);
+                BlockPos pos = findPosition(world, players, mob, classification, conditions);
+                if (pos != null && !world.hasChunkAt(pos)) {
+                    Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.NO_CHUNK);
+                } else if (pos != null) {
+                    EntityType<?> spawnable = selectMob(world, mob, classification, conditions, pos);
+                    if (spawnable == null) {
+                        done = true;
+                        break;
+                    }
+                    if (isValidPosition(ruleNr, world, spawnable, pos) && isValidForType(ruleNr, world, spawnable, pos, conditions)) {
+                        batch.add(Pair.of(spawnable, pos));
+                    }
+                }
+            }
+            for (Pair<EntityType<?>, BlockPos> pair : batch) {
+                if (trySpawn(ruleNr, world, pair.getLeft(), pair.getRight(), conditions)) {
+                    spawned++;
                 }
             }
         }
     }
 
+    // The checks of the single phase mode that come before the entity is created. Everything
+    // else (including the peaceful check) is done by trySpawn() exactly as in the single phase mode
+    private static boolean isValidPosition(int ruleNr, ServerWorld world, EntityType<?> spawnable, BlockPos pos) {
+        if (!world.noCollision(spawnable.getAABB(pos.getX(), pos.getY(), pos.getZ()))) {
+            Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.COLLISION);
+            return false;
+        }
+        return true;
+    }
+
+    // The checks of the two phase mode that can be done with only the type of the mob. Positions
+    // that fail here never get an entity. trySpawn() still does the full checks on the entity
+    private static boolean isValidForType(int ruleNr, ServerWorld world, EntityType<?> spawnable, BlockPos pos, SpawnerConditions conditions) {
+        // By category: trySpawn() tests the actual entity for IMob
+        if (spawnable.getCategory() == EntityClassification.MONSTER && world.getDifficulty() == Difficulty.PEACEFUL) {
+            Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.SPAWN_RULES);
+            return false;
+        }
+        if (!conditions.isNoRestrictions() && !EntitySpawnPlacementRegistry.checkSpawnRules(spawnable, world, SpawnReason.NATURAL, pos, random)) {
+            Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.SPAWN_RULES);
+            return false;
+        }
+        AxisAlignedBB box = spawnable.getAABB(pos.getX(), pos.getY(), pos.getZ());
+        boolean liquid;
+        if (conditions.isInLiquid()) {
+            liquid = world.containsAnyLiquid(box);
+        } else if (conditions.isInWater()) {
+            liquid = containsLiquid(world, box, FluidTags.WATER);
+        } else if (conditions.isInLava()) {
+            liquid = containsLiquid(world, box, FluidTags.LAVA);
+        } else {
+            liquid = true;
+        }
+        if (!liquid) {
+            Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.COLLISION);
+            return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private static BlockPos findPosition(ServerWorld world, List<? extends PlayerEntity> players, @Nullable EntityType<?> mob, @Nullable EntityClassification classification, SpawnerConditions conditions) {
+        PlayerEntity player = players.get(random.nextInt(players.size()));
+        if (classification != null) {
+            // Don't bother looking for a position if nothing of this classification can spawn near this player
+            SpawnPositionPool pool = getPool(world, player, conditions);
+            if (pool != null && !pool.canSpawnNearby(classification)) {
+                Statistics.addSpawnerFailure(currentRule, Statistics.SpawnerFailure.NO_MOB);
+                return null;
+            }
+        }
+        localCapHit = false;
+        BlockPos pos = getRandomPosition(world, player, mob, conditions);
+        if (pos == null) {
+            Statistics.addSpawnerFailure(currentRule, localCapHit ? Statistics.SpawnerFailure.CAP : Statistics.SpawnerFailure.NO_POSITION);
+        }
+        return pos;
+    }
+
+    // Create the entity and spawn it if all checks pass
+    private static boolean trySpawn(int ruleNr, ServerWorld world, EntityType<?> spawnable, BlockPos pos, SpawnerConditions conditions) {
+        Entity entity = spawnable.create(world);
+        if (entity instanceof MobEntity) {
+            if (!(entity instanceof IMob) || world.getDifficulty() != Difficulty.PEACEFUL) {
+                MobEntity mobEntity = (MobEntity) entity;
+                entity.moveTo(pos.getX(), pos.getY(), pos.getZ(), random.nextFloat() * 360.0F, 0.0F);
+                busySpawning = mobEntity;   // @todo check in spawn rule
+                int result = ForgeHooks.canEntitySpawn(mobEntity, world, pos.getX(), pos.getY(), pos.getZ(), null, SpawnReason.NATURAL);
+                busySpawning = null;
+                if (result == -1) {
+                    Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.FORGE_DENY);
+                } else if (!canSpawn(world, mobEntity, conditions)) {
+                    Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.SPAWN_RULES);
+                } else if (!isNotColliding(world, mobEntity, conditions)) {
+                    Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.COLLISION);
+                } else {
+                    mobEntity.finalizeSpawn(world, world.getCurrentDifficultyAt(entity.blockPosition()), SpawnReason.NATURAL, null, null);
+                    world.addFreshEntityWithPassengers(entity);
+                    Statistics.addSpawnerStat(ruleNr);
+                    return true;
+                }
+                return false;
+            }
+        }
+        Statistics.addSpawnerFailure(ruleNr, Statistics.SpawnerFailure.SPAWN_RULES);
+        return false;
+    }
+
     private static EntityType<?> selectMob(ServerWorld world, EntityType<?> mob, EntityClassification classification, SpawnerConditions conditions, BlockPos pos) {
         EntityType<?> spawnable = mob;
         if (spawnable == null && classification != null) {
             List<MobSpawnInfo.Spawners> spawners = world.getBiome(pos).getMobSettings().getMobs(classification);
             if (spawners.isEmpty()) {
+                Statistics.addSpawnerFailure(currentRule, Statistics.SpawnerFailure.NO_MOB);
                 return null;
             }
             MobSpawnInfo.Spawners item = WeightedRandom.getRandomItem(world.random, spawners);
             if (item == null) {
+                Statistics.addSpawnerFailure(currentRule, Statistics.SpawnerFailure.NO_MOB);
                 return null;
             }
             spawnable = item.type;
             if (checkTooMany(world, spawnable, conditions)) {
+                Statistics.addSpawnerFailure(currentRule, Statistics.SpawnerFailure.CAP);
                 return null;
             }
         }
@@ -254,26 +492,22 @@ public class SpawnerSystem {
     }
 
     @Nullable
-    private static BlockPos getRandomPosition(World world, EntityType<?> mob, SpawnerConditions conditions) {
+    private static BlockPos getRandomPosition(World world, PlayerEntity player, EntityType<?> mob, SpawnerConditions conditions) {
         boolean inAir = conditions.isInAir();
         boolean inWater = conditions.isInWater();
         boolean inLava = conditions.isInLava();
         boolean inLiquid = conditions.isInLiquid();
 
         if (inAir || inWater || inLava || inLiquid) {
-            return getRandomPositionInBox(world, mob, conditions);
+            return getRandomPositionInBox(world, player, mob, conditions);
         } else {
-            return getRandomPositionOnGround(world, mob, conditions);
+            return getRandomPositionOnGround(world, player, mob, conditions);
         }
     }
 
     @Nullable
-    private static BlockPos getRandomPositionInBox(World world, EntityType<?> mob, SpawnerConditions conditions) {
-        List<? extends PlayerEntity> players = world.players();
-        PlayerEntity player = players.get(random.nextInt(players.size()));
+    private static BlockPos getRandomPositionInBox(World world, PlayerEntity player, EntityType<?> mob, SpawnerConditions conditions) {
 
-        int mindist = conditions.getMindist();
-        int maxdist = conditions.getMaxdist();
         Box box = createSpawnBox(conditions, player.blockPosition());
 
         if (!box.isValid()) {
@@ -284,26 +518,23 @@ public class SpawnerSystem {
             return null;
         }
 
-        BlockPos pos = box.randomPos(random);
-        double sqdist = pos.distSqr(player.blockPosition().getX(), player.blockPosition().getY(), player.blockPosition().getZ(), true);
-
-        int counter = 100;
-        while (sqdist < mindist * mindist || sqdist > maxdist * maxdist) {
-            pos = box.randomPos(random);
-            sqdist = pos.distSqr(player.blockPosition().getX(), player.blockPosition().getY(), player.blockPosition().getZ(), true);
-            counter--;
-            if (counter <= 0) {
-                return null;
+        if (!conditions.isInAir()) {
+            // Liquid spawns: first try the positions we already know are the right liquid
+            SpawnPositionPool pool = getPool(world, player, conditions);
+            if (pool != null) {
+                BlockPos pos = pool.pickLiquid(player.blockPosition(), conditions, random);
+                if (pos != null) {
+                    return pos;
+                }
             }
         }
 
-        return pos;
+        // The shape samples directly between mindist and maxdist so there is no need to retry
+        return conditions.getShape().sample(player.blockPosition(), conditions, random);
     }
 
     @Nullable
-    private static BlockPos getRandomPositionOnGround(World world, EntityType<?> mob, SpawnerConditions conditions) {
-        List<? extends PlayerEntity> players = world.players();
-        PlayerEntity player = players.get(random.nextInt(players.size()));
+    private static BlockPos getRandomPositionOnGround(World world, PlayerEntity player, EntityType<?> mob, SpawnerConditions conditions) {
 
         int minheight = conditions.getMinheight();
         int maxheight = conditions.getMaxheight();
@@ -320,13 +551,31 @@ public class SpawnerSystem {
             return null;
         }
 
-        BlockPos pos = box.randomPos(random);
+        SpawnPositionPool pool = getPool(world, player, conditions);
+        if (pool != null) {
+            // First try the ground positions we found earlier. If that position is no longer valid
+            // (or the pool has nothing suitable) we search the world ourselves
+            BlockPos pos = pool.pickGround(player.blockPosition(), conditions, random);
+            if (pos != null && world.hasChunkAt(pos) && isValidSpawnPos(world, pos)) {
+                return pos;
+            }
+        }
+
+        // The shape gives us a column in the right distance range. The ground in that column can still
+        // be too close or too far (vertically) so in that case we try again
+        BlockPos pos = conditions.getShape().sample(player.blockPosition(), conditions, random);
+        if (pos == null) {
+            return null;
+        }
         pos = getValidSpawnablePosition(world, pos.getX(), pos.getZ(), minheight, maxheight);
         double sqdist = pos == null ? Double.MAX_VALUE : pos.distSqr(player.blockPosition().getX(), player.blockPosition().getY(), player.blockPosition().getZ(), true);
 
         int counter = 100;
         while (sqdist < mindist * mindist || sqdist > maxdist * maxdist) {
-            pos = box.randomPos(random);
+            pos = conditions.getShape().sample(player.blockPosition(), conditions, random);
+            if (pos == null) {
+                return null;
+            }
             pos = getValidSpawnablePosition(world, pos.getX(), pos.getZ(), minheight, maxheight);
             sqdist = pos == null ? Double.MAX_VALUE : pos.distSqr(player.blockPosition().getX(), player.blockPosition().getY(), player.blockPosition().getZ(), true);
             counter--;
@@ -340,8 +589,9 @@ public class SpawnerSystem {
 
     private static boolean checkLocalCount(ServerWorld world, EntityType<?> mob, SpawnerConditions conditions, Box box) {
         if (conditions.getMaxlocal() != -1) {
-            long count = world.getEntities().filter(e -> e.getType() == mob && box.in(e.blockPosition())).count();
+            int count = mob == null ? 0 : InControl.setup.cache.getLocalCount(world, mob, box);
             if (count >= conditions.getMaxlocal()) {
+                localCapHit = true;
                 return true;
             }
         }
@@ -356,7 +606,7 @@ public class SpawnerSystem {
                 .build();
     }
 
-    private static BlockPos getValidSpawnablePosition(IWorldReader worldIn, int x, int z, int minHeight, int maxHeight) {
+    static BlockPos getValidSpawnablePosition(IWorldReader worldIn, int x, int z, int minHeight, int maxHeight) {
         int height = worldIn.getHeight(Heightmap.Type.WORLD_SURFACE, x, z) + 1;
         height = Math.min(height, maxHeight);
         height = random.nextInt(height + 1);
@@ -376,8 +626,21 @@ public class SpawnerSystem {
 
 
     public static class WorldSpawnerData {
-        private final List<SpawnerRule> rules = new ArrayList<>();
-        private int counter = 1;
+        private final SpawnerScheduler scheduler;
+        private final Map<UUID, Map<SpawnPositionPool.Band, SpawnPositionPool>> pools;
+        private final Set<SpawnPositionPool.Band> bands = new HashSet<>();    // The bands of all rules in this dimension
+        private int dimensionMask = -1; // The classifications that can spawn in this dimension (see BiomeSpawnTable)
+
+        // Start from the data of this dimension before the rules were reloaded (can be null)
+        public WorldSpawnerData(@Nullable WorldSpawnerData previous) {
+            if (previous == null) {
+                scheduler = new SpawnerScheduler();
+                pools = new HashMap<>();
+            } else {
+                scheduler = new SpawnerScheduler(previous.scheduler);
+                pools = previous.pools;
+            }
+        }
     }
 
 }
@@ -0,0 +1,102 @@
+package mcjty.incontrol.tools.cache;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraft.world.gen.feature.structure.Structure;
+import net.minecraft.world.gen.feature.structure.StructurePiece;
+import net.minecraft.world.gen.feature.structure.StructureStart;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bounding boxes of all structure pieces of the structure starts in loaded chunks of
+ * one dimension. The boxes are bucketed per chunk they overlap so that a query only has
+ * to test the few boxes in the chunk of the position
+ */
+class StructureBoxIndex {
+
+    private static class StructureBox {
+        private final String structure;
+        private final MutableBoundingBox box;
+
+        private StructureBox(String structure, MutableBoundingBox box) {
+            this.structure = structure;
+            this.box = box;
+        }
+    }
+
+    // Chunk -> all boxes that overlap that chunk
+    private final Long2ObjectOpenHashMap<List<StructureBox>> boxesPerChunk = new Long2ObjectOpenHashMap<>();
+    // Chunk with structure starts -> the boxes of those starts (so they can be removed when the chunk unloads)
+    private final Long2ObjectOpenHashMap<List<StructureBox>> boxesPerStart = new Long2ObjectOpenHashMap<>();
+
+    // Return true if the starts in this chunk are known
+    boolean isResolved(long startChunk) {
+        return boxesPerStart.containsKey(startChunk);
+    }
+
+    void addStarts(IChunk chunk) {
+        long startChunk = chunk.getPos().toLong();
+        removeStarts(startChunk);
+        List<StructureBox> boxes = new ArrayList<>();
+        for (Map.Entry<Structure<?>, StructureStart<?>> entry : chunk.getAllStarts().entrySet()) {
+            StructureStart<?> start = entry.getValue();
+            if (start == null || !start.isValid()) {
+                continue;
+            }
+            String name = entry.getKey().getRegistryName().toString();
+            for (StructurePiece piece : start.getPieces()) {
+                StructureBox box = new StructureBox(name, piece.getBoundingBox());
+                boxes.add(box);
+                for (int cx = box.box.x0 >> 4; cx <= box.box.x1 >> 4; cx++) {
+                    for (int cz = box.box.z0 >> 4; cz <= box.box.z1 >> 4; cz++) {
+                        boxesPerChunk.computeIfAbsent(ChunkPos.asLong(cx, cz), k -> new ArrayList<>()).add(box);
+                    }
+                }
+            }
+        }
+        boxesPerStart.put(startChunk, boxes);
+    }
+
+    void removeStarts(long startChunk) {
+        List<StructureBox> boxes = boxesPerStart.remove(startChunk);
+        if (boxes == null) {
+            return;
+        }
+        for (StructureBox box : boxes) {
+            for (int cx = box.box.x0 >> 4; cx <= box.box.x1 >> 4; cx++) {
+                for (int cz = box.box.z0 >> 4; cz <= box.box.z1 >> 4; cz++) {
+                    long chunk = ChunkPos.asLong(cx, cz);
+                    List<StructureBox> list = boxesPerChunk.get(chunk);
+                    if (list != null) {
+                        list.remove(box);
+                        if (list.isEmpty()) {
+                            boxesPerChunk.remove(chunk);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    boolean isInside(String structure, BlockPos pos) {
+        List<StructureBox> boxes = boxesPerChunk.get(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+        if (boxes != null) {
+            for (StructureBox box : boxes) {
+                if (box.structure.equals(structure) && box.box.isInside(pos)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return boxesPerStart.values().stream().mapToInt(List::size).sum();
+    }
+}
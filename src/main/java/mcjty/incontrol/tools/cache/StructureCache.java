@@ -1,60 +1,209 @@
 package mcjty.incontrol.tools.cache;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import mcjty.incontrol.setup.Config;
 import mcjty.incontrol.tools.varia.Tools;
 import net.minecraft.util.RegistryKey;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.IWorld;
 import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.ChunkStatus;
 import net.minecraft.world.chunk.IChunk;
 import net.minecraft.world.gen.feature.structure.Structure;
-import net.minecraft.world.server.ServerWorld;
+import org.apache.logging.log4j.Logger;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Remember where structures are
+ * Remember where structures are. For every dimension we keep the names of the structures
+ * that are referenced by a chunk (keyed by the packed chunk position). Chunks are added
+ * when they are loaded and removed again when they unload so that the structure check
+ * never has to go to the chunk source. The amount of chunks that is remembered per
+ * dimension is limited and the least recently used chunks are forgotten first.
+ * Every dimension has its own lock so dimensions (and world generation) don't wait for each other
  */
 public class StructureCache {
 
     public static final StructureCache CACHE = new StructureCache();
 
-    private final Map<StructureCacheEntry, Boolean> structureCache = new HashMap<>();
+    static final ChunkStructures NONE = new ChunkStructures(new String[0], new long[0][]);
+
+    // The structures referenced by a chunk and for each of them the chunks where the structure starts
+    static class ChunkStructures {
+        private final String[] names;
+        private final long[][] starts;
+
+        ChunkStructures(String[] names, long[][] starts) {
+            this.names = names;
+            this.starts = starts;
+        }
+
+        private int indexOf(String structure) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(structure)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final Map<RegistryKey<World>, PerDimension> caches = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
 
     public void clean() {
-        structureCache.clear();
+        caches.clear();
+    }
+
+    public void clearStats() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public void dumpStats(Logger logger) {
+        int size = 0;
+        int boxes = 0;
+        for (PerDimension cache : caches.values()) {
+            synchronized (cache) {
+                size += cache.structures.size();
+                boxes += cache.boxes.size();
+            }
+        }
+        logger.info("Structure cache: " + size + " chunks, " + hits.get() + " hits, " + misses.get() + " misses, " + evictions.get() + " evictions");
+        if (Config.PRECISE_STRUCTURES.get()) {
+            logger.info("Structure cache: " + boxes + " structure pieces");
+        }
     }
 
     public boolean isInStructure(IWorld world, String structure, BlockPos pos) {
+        int cx = pos.getX() >> 4;
+        int cz = pos.getZ() >> 4;
+        if (!(world instanceof World)) {
+            // World generation: the chunk is part of the region that is being generated
+            IChunk chunk = world.getChunk(cx, cz, ChunkStatus.STRUCTURE_REFERENCES, false);
+            return chunk != null && getStructures(chunk).indexOf(structure) != -1;
+        }
+
         RegistryKey<World> dimension = Tools.getDimensionKey(world);
-        ChunkPos cp = new ChunkPos(pos);
-        long cplong = ChunkPos.asLong(cp.x, cp.z);
-        StructureCacheEntry entry = new StructureCacheEntry(structure, dimension, cplong);
-        if (structureCache.containsKey(entry)) {
-            return structureCache.get(entry);
+        PerDimension cache = caches.computeIfAbsent(dimension, k -> new PerDimension());
+        long cplong = ChunkPos.asLong(cx, cz);
+        synchronized (cache) {
+            ChunkStructures structures = cache.structures.getAndMoveToLast(cplong);
+            if (structures != null) {
+                hits.incrementAndGet();
+                return cache.contains(structures, structure, pos);
+            }
         }
 
-        ServerWorld sw = Tools.getServerWorld(world);
-        IChunk chunk = sw.getChunk(pos.getX() >> 4, pos.getZ() >> 4, ChunkStatus.STRUCTURE_REFERENCES, false);
+        // Normally every loaded chunk is in the cache (see onChunkLoad). This only happens when the chunk was
+        // evicted or is not loaded. We never load chunks here
+        misses.incrementAndGet();
+        Chunk chunk = ((World) world).getChunkSource().getChunkNow(cx, cz);
         if (chunk == null) {
             return false;
         }
-        Map<Structure<?>, LongSet> references = chunk.getAllReferences();
-        for (Map.Entry<Structure<?>, LongSet> e : references.entrySet()) {
-            LongSet longs = e.getValue();
-            if (!longs.isEmpty()) {
-                structureCache.put(new StructureCacheEntry(e.getKey().getRegistryName().toString(), dimension, cplong), true);
+        ChunkStructures structures = getStructures(chunk);
+        synchronized (cache) {
+            cache.put(cplong, structures);
+            return cache.contains(structures, structure, pos);
+        }
+    }
+
+    public void onChunkLoad(IWorld world, IChunk chunk) {
+        // Only full chunks are sure to have all their structure references
+        if (chunk instanceof Chunk) {
+            PerDimension cache = caches.computeIfAbsent(Tools.getDimensionKey(world), k -> new PerDimension());
+            ChunkStructures structures = getStructures(chunk);
+            synchronized (cache) {
+                cache.put(chunk.getPos().toLong(), structures);
+                if (Config.PRECISE_STRUCTURES.get()) {
+                    cache.boxes.addStarts(chunk);
+                }
+            }
+        }
+    }
+
+    public void onChunkUnload(IWorld world, IChunk chunk) {
+        PerDimension cache = caches.get(Tools.getDimensionKey(world));
+        if (cache != null) {
+            synchronized (cache) {
+                cache.structures.remove(chunk.getPos().toLong());
+                cache.boxes.removeStarts(chunk.getPos().toLong());
             }
         }
+    }
 
-        if (structureCache.containsKey(entry)) {
-            return true;
-        } else {
-            structureCache.put(entry, false);
-            return false;
+    public void onWorldUnload(IWorld world) {
+        caches.remove(Tools.getDimensionKey(world));
+    }
+
+    private static ChunkStructures getStructures(IChunk chunk) {
+        List<String> names = null;
+        List<long[]> starts = null;
+        for (Map.Entry<Structure<?>, LongSet> e : chunk.getAllReferences().entrySet()) {
+            if (!e.getValue().isEmpty()) {
+                if (names == null) {
+                    names = new ArrayList<>();
+                    starts = new ArrayList<>();
+                }
+                names.add(e.getKey().getRegistryName().toString());
+                starts.add(e.getValue().toLongArray());
+            }
+        }
+        return names == null ? NONE : new ChunkStructures(names.toArray(new String[0]), starts.toArray(new long[0][]));
+    }
+
+    // All access must be synchronized on the PerDimension
+    class PerDimension {
+        // Chunk position -> structures in that chunk. Ordered from least to most recently used
+        final Long2ObjectLinkedOpenHashMap<ChunkStructures> structures = new Long2ObjectLinkedOpenHashMap<>();
+        // Only used in precise mode
+        private final StructureBoxIndex boxes = new StructureBoxIndex();
+
+        // In precise mode the position must be in one of the pieces of the structure. If we don't
+        // know the pieces (the chunk where the structure starts is not loaded) we use the chunk
+        private boolean contains(ChunkStructures structures, String structure, BlockPos pos) {
+            int idx = structures.indexOf(structure);
+            if (idx == -1) {
+                return false;
+            }
+            if (!Config.PRECISE_STRUCTURES.get()) {
+                return true;
+            }
+            for (long start : structures.starts[idx]) {
+                if (!boxes.isResolved(start)) {
+                    return true;
+                }
+            }
+            return boxes.isInside(structure, pos);
+        }
+
+        private void put(long chunk, ChunkStructures s) {
+            put(chunk, s, Config.STRUCTURE_CACHE_SIZE.get());
+        }
+
+        void put(long chunk, ChunkStructures s, int max) {
+            if (structures.containsKey(chunk)) {
+                // Already cached (by a lookup before the chunk load event): replace it without evicting anything
+                structures.putAndMoveToLast(chunk, s);
+                return;
+            }
+            while (structures.size() >= max && !structures.isEmpty()) {
+                structures.removeFirst();
+                evictions.incrementAndGet();
+            }
+            structures.putAndMoveToLast(chunk, s);
         }
     }
 
@@ -0,0 +1,117 @@
+package mcjty.incontrol.tools.rules;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All checks of a rule combined into one check that learns a good order. About once
+ * every SAMPLE_RATE evaluations the checks are timed and their pass rate is recorded.
+ * After enough samples the checks are sorted so that checks that are cheap and
+ * usually reject come first. Since all checks must pass the result doesn't depend
+ * on the order. Order sensitive checks (random, checks that use the world random or
+ * that can load chunks) are barriers: they keep their position and other checks are
+ * only sorted between them. Checks can be evaluated from several threads (worldgen)
+ * so the statistics are kept in atomics
+ */
+public class AdaptiveCheck implements ICheck {
+
+    private static final int SAMPLE_RATE = 64;          // Must be a power of two
+    private static final int SAMPLES_PER_REORDER = 256;
+
+    private static class Entry {
+        private final ICheck check;
+        private final boolean barrier;
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicInteger tested = new AtomicInteger();
+        private final AtomicInteger passed = new AtomicInteger();
+
+        private Entry(ICheck check) {
+            this.check = check;
+            this.barrier = check.isOrderSensitive();
+        }
+
+        // Expected cost to get a rejection out of this check. Lower is better
+        private double getScore() {
+            int t = tested.get();
+            if (t == 0) {
+                return Double.MAX_VALUE;
+            }
+            double cost = (double) nanos.get() / t;
+            double rejectRate = (double) Math.max(0, t - passed.get()) / t;
+            return cost / Math.max(rejectRate, 0.001);
+        }
+    }
+
+    // Replaced as a whole on reorder so that a concurrent evaluation always sees a complete array
+    private volatile Entry[] entries;
+    private final AtomicInteger samples = new AtomicInteger();
+
+    public AdaptiveCheck(Iterable<ICheck> checks) {
+        Entry[] e = new Entry[0];
+        for (ICheck check : checks) {
+            e = Arrays.copyOf(e, e.length + 1);
+            e[e.length - 1] = new Entry(check);
+        }
+        entries = e;
+    }
+
+    @Override
+    public boolean test(EventContext ctx) {
+        Entry[] e = entries;
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0) {
+            return testAndMeasure(e, ctx);
+        }
+        for (Entry entry : e) {
+            if (!entry.check.test(ctx)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Measuring stops at the first failed check just like a normal evaluation. Checks behind
+    // a selective check get fewer samples but no check is ever run where it normally wouldn't
+    private boolean testAndMeasure(Entry[] e, EventContext ctx) {
+        boolean result = true;
+        for (Entry entry : e) {
+            long start = System.nanoTime();
+            boolean ok = entry.check.test(ctx);
+            entry.nanos.addAndGet(System.nanoTime() - start);
+            entry.tested.incrementAndGet();
+            if (ok) {
+                entry.passed.incrementAndGet();
+            } else {
+                result = false;
+                break;
+            }
+        }
+        if (samples.incrementAndGet() == SAMPLES_PER_REORDER) {
+            reorder(e);
+            samples.set(0);
+        }
+        return result;
+    }
+
+    private void reorder(Entry[] e) {
+        Entry[] sorted = e.clone();
+        int start = 0;
+        for (int i = 0; i <= sorted.length; i++) {
+            if (i == sorted.length || sorted[i].barrier) {
+                if (i - start > 1) {
+                    Arrays.sort(sorted, start, i, Comparator.comparingDouble(Entry::getScore));
+                }
+                start = i + 1;
+            }
+        }
+        // Halve the statistics so that the order can follow changing circumstances
+        for (Entry entry : sorted) {
+            entry.nanos.updateAndGet(v -> v / 2);
+            entry.tested.updateAndGet(v -> v / 2);
+            entry.passed.updateAndGet(v -> v / 2);
+        }
+        entries = sorted;
+    }
+}
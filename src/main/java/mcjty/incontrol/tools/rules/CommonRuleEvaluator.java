@@ -5,6 +5,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import mcjty.incontrol.ErrorHandler;
+import mcjty.incontrol.setup.Config;
 import mcjty.incontrol.tools.cache.StructureCache;
 import mcjty.incontrol.tools.typed.AttributeMap;
 import mcjty.incontrol.tools.varia.LookAtTools;
@@ -30,7 +31,6 @@ import net.minecraft.world.Difficulty;
 import net.minecraft.world.IWorld;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
-import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraftforge.common.BiomeManager;
 import net.minecraftforge.common.util.Constants;
@@ -44,8 +44,8 @@ import org.apache.logging.log4j.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
-import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -54,7 +54,8 @@ import static mcjty.incontrol.tools.rules.CommonRuleKeys.*;
 
 public class CommonRuleEvaluator {
 
-    protected final List<BiFunction<Object, IEventQuery, Boolean>> checks = new ArrayList<>();
+    protected final List<ICheck> checks = new ArrayList<>();
+    private final ICheck compiled;
     private final Logger logger;
     private final IModRuleCompatibilityLayer compatibility;
 
@@ -62,9 +63,46 @@ public class CommonRuleEvaluator {
         this.logger = logger;
         this.compatibility = compatibility;
         addChecks(map);
+        compiled = compile(checks);
     }
 
-    // Rules in this routine are sorted so that the more expensive checks are added later
+    // Turn the list of checks into a single check so that matching doesn't have to iterate
+    private static ICheck compile(List<ICheck> checks) {
+        if (Config.ADAPTIVE_CHECK_ORDER.get() && checks.stream().filter(c -> !c.isOrderSensitive()).count() > 1) {
+            return new AdaptiveCheck(checks);
+        }
+        switch (checks.size()) {
+            case 0:
+                return ctx -> true;
+            case 1:
+                return checks.get(0);
+            case 2: {
+                ICheck c1 = checks.get(0);
+                ICheck c2 = checks.get(1);
+                return ctx -> c1.test(ctx) && c2.test(ctx);
+            }
+            case 3: {
+                ICheck c1 = checks.get(0);
+                ICheck c2 = checks.get(1);
+                ICheck c3 = checks.get(2);
+                return ctx -> c1.test(ctx) && c2.test(ctx) && c3.test(ctx);
+            }
+            default: {
+                ICheck[] array = checks.toArray(new ICheck[0]);
+                return ctx -> {
+                    for (ICheck check : array) {
+                        if (!check.test(ctx)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+            }
+        }
+    }
+
+    // Rules in this routine are sorted so that the more expensive checks are added later. This is only
+    // the initial order: AdaptiveCheck will reorder them based on measured cost and selectivity
     protected void addChecks(AttributeMap map) {
         map.consume(RANDOM, this::addRandomCheck);
         map.consumeAsList(DIMENSION, this::addDimensionCheck);
@@ -123,34 +161,34 @@ public class CommonRuleEvaluator {
     private static Random rnd = new Random();
 
     private void addRandomCheck(float r) {
-        checks.add((event,query) -> rnd.nextFloat() < r);
+        checks.add(ICheck.orderSensitive(ctx -> rnd.nextFloat() < r));
     }
 
     private void addSeeSkyCheck(boolean seesky) {
         if (seesky) {
-            checks.add((event,query) -> query.getWorld(event).canSeeSkyFromBelowWater(query.getPos(event)));
+            checks.add(ctx -> ctx.getWorld().canSeeSkyFromBelowWater(ctx.getPos()));
         } else {
-            checks.add((event,query) -> !query.getWorld(event).canSeeSkyFromBelowWater(query.getPos(event)));
+            checks.add(ctx -> !ctx.getWorld().canSeeSkyFromBelowWater(ctx.getPos()));
         }
     }
 
     private void addDimensionCheck(List<RegistryKey<World>> dimensions) {
         if (dimensions.size() == 1) {
             RegistryKey<World> dim = dimensions.get(0);
-            checks.add((event,query) -> Tools.getDimensionKey(query.getWorld(event)).equals(dim));
+            checks.add(ctx -> Tools.getDimensionKey(ctx.getWorld()).equals(dim));
         } else {
             Set<RegistryKey<World>> dims = new HashSet<>(dimensions);
-            checks.add((event,query) -> dims.contains(Tools.getDimensionKey(query.getWorld(event))));
+            checks.add(ctx -> dims.contains(Tools.getDimensionKey(ctx.getWorld())));
         }
     }
 
     private void addDimensionModCheck(List<String> dimensions) {
         if (dimensions.size() == 1) {
             String dimmod = dimensions.get(0);
-            checks.add((event,query) -> Tools.getDimensionKey(query.getWorld(event)).location().getNamespace().equals(dimmod));
+            checks.add(ctx -> Tools.getDimensionKey(ctx.getWorld()).location().getNamespace().equals(dimmod));
         } else {
             Set<String> dims = new HashSet<>(dimensions);
-            checks.add((event,query) -> dims.contains(Tools.getDimensionKey(query.getWorld(event)).location().getNamespace()));
+            checks.add(ctx -> dims.contains(Tools.getDimensionKey(ctx.getWorld()).location().getNamespace()));
         }
     }
 
@@ -159,7 +197,7 @@ public class CommonRuleEvaluator {
         Difficulty diff = Difficulty.byName(difficulty);
         if (diff != null) {
             Difficulty finalDiff = diff;
-            checks.add((event,query) -> query.getWorld(event).getDifficulty() == finalDiff);
+            checks.add(ctx -> ctx.getWorld().getDifficulty() == finalDiff);
         } else {
             ErrorHandler.error("Unknown difficulty '" + difficulty + "'! Use one of 'easy', 'normal', 'hard',  or 'peaceful'");
         }
@@ -169,8 +207,8 @@ public class CommonRuleEvaluator {
         boolean raining = weather.toLowerCase().startsWith("rain");
         boolean thunder = weather.toLowerCase().startsWith("thunder");
         if (raining) {
-            checks.add((event,query) -> {
-                IWorld world = query.getWorld(event);
+            checks.add(ctx -> {
+                IWorld world = ctx.getWorld();
                 if (world instanceof World) {
                     return ((World) world).isRaining();
                 } else {
@@ -178,8 +216,8 @@ public class CommonRuleEvaluator {
                 }
             });
         } else if (thunder) {
-            checks.add((event, query) -> {
-                IWorld world = query.getWorld(event);
+            checks.add(ctx -> {
+                IWorld world = ctx.getWorld();
                 if (world instanceof World) {
                     return ((World) world).isThundering();
                 } else {
@@ -193,22 +231,22 @@ public class CommonRuleEvaluator {
 
     private void addCategoryCheck(List<String> list) {
         Set<Biome.Category> categories = list.stream().map(s -> Biome.Category.byName(s.toLowerCase())).collect(Collectors.toSet());
-        checks.add((event,query) -> {
-            Biome biome = query.getWorld(event).getBiome(query.getPos(event));
+        checks.add(ctx -> {
+            Biome biome = ctx.getBiome();
             return categories.contains(biome.getBiomeCategory());
         });
     }
 
 
     private void addStructureCheck(String structure) {
-        checks.add((event,query) -> StructureCache.CACHE.isInStructure(query.getWorld(event), structure, query.getPos(event)));
+        checks.add(ctx -> StructureCache.CACHE.isInStructure(ctx.getWorld(), structure, ctx.getPos()));
     }
 
     private void addBiomesCheck(List<String> biomes) {
         if (biomes.size() == 1) {
             String biomename = biomes.get(0);
-            checks.add((event,query) -> {
-                Biome biome = query.getWorld(event).getBiome(query.getPos(event));
+            checks.add(ctx -> {
+                Biome biome = ctx.getBiome();
                 if (Tools.getBiomeId(biome).equals(biomename)) {
                     return true;
                 } else {
@@ -217,8 +255,8 @@ public class CommonRuleEvaluator {
             });
         } else {
             Set<String> biomenames = new HashSet<>(biomes);
-            checks.add((event,query) -> {
-                Biome biome = query.getWorld(event).getBiome(query.getPos(event));
+            checks.add(ctx -> {
+                Biome biome = ctx.getBiome();
                 if (biomenames.contains(biome.getRegistryName().toString())) {
                     return true;
                 } else {
@@ -233,8 +271,8 @@ public class CommonRuleEvaluator {
         biomeTypes.stream().map(s -> BiomeManager.BiomeType.valueOf(s.toUpperCase())).
                 forEach(type -> BiomeManager.getBiomes(type).stream().forEach(t -> biomes.add(ForgeRegistries.BIOMES.getValue(t.getKey().getRegistryName()))));
 
-        checks.add((event,query) -> {
-            Biome biome = query.getWorld(event).getBiome(query.getPos(event));
+        checks.add(ctx -> {
+            Biome biome = ctx.getBiome();
             return biomes.contains(biome);
         });
     }
@@ -245,7 +283,7 @@ public class CommonRuleEvaluator {
     }
 
     @Nonnull
-    private BiFunction<Object, IEventQuery, BlockPos> parseOffset(String json) {
+    private Function<EventContext, BlockPos> parseOffset(String json) {
         JsonParser parser = new JsonParser();
         JsonElement element = parser.parse(json);
         JsonObject obj = element.getAsJsonObject();
@@ -266,41 +304,31 @@ public class CommonRuleEvaluator {
         }
 
         if (obj.has("look")) {
-            return (event, query) -> {
-                RayTraceResult result = LookAtTools.getMovingObjectPositionFromPlayer(query.getWorld(event), query.getPlayer(event), false);
+            return ctx -> {
+                RayTraceResult result = LookAtTools.getMovingObjectPositionFromPlayer(ctx.getWorld(), ctx.getPlayer(), false);
                 if (result instanceof BlockRayTraceResult) {
                     return ((BlockRayTraceResult) result).getBlockPos().offset(offsetX, offsetY, offsetZ);
                 } else {
-                    return query.getValidBlockPos(event).offset(offsetX, offsetY, offsetZ);
+                    return ctx.getValidBlockPos().offset(offsetX, offsetY, offsetZ);
                 }
             };
 
         }
-        return (event, query) -> query.getValidBlockPos(event).offset(offsetX, offsetY, offsetZ);
+        return ctx -> ctx.getValidBlockPos().offset(offsetX, offsetY, offsetZ);
     }
 
-    private static boolean testBlockStateSafe(IWorld world, BlockPos pos, Block block) {
-        Chunk chunk = world.getChunkSource().getChunkNow(pos.getX() >> 4, pos.getZ() >> 4);
-        if (chunk != null) {
-            BlockState state = world.getBlockState(pos);
-            return state.getBlock() == block;
-        } else {
-            return false;
-        }
+    private static boolean testBlockStateSafe(EventContext ctx, BlockPos pos, Block block) {
+        BlockState state = ctx.getLoadedBlockState(pos);
+        return state != null && state.getBlock() == block;
     }
 
-    private static boolean testBlockStateSafe(IWorld world, BlockPos pos, BlockState block) {
-        Chunk chunk = world.getChunkSource().getChunkNow(pos.getX() >> 4, pos.getZ() >> 4);
-        if (chunk != null) {
-            BlockState state = world.getBlockState(pos);
-            return state == block;
-        } else {
-            return false;
-        }
+    private static boolean testBlockStateSafe(EventContext ctx, BlockPos pos, BlockState block) {
+        BlockState state = ctx.getLoadedBlockState(pos);
+        return state == block;
     }
 
     @Nullable
-    private BiPredicate<IWorld, BlockPos> parseBlock(String json) {
+    private BiPredicate<EventContext, BlockPos> parseBlock(String json) {
         JsonParser parser = new JsonParser();
         JsonElement element = parser.parse(json);
         if (element.isJsonPrimitive()) {
@@ -309,23 +337,23 @@ public class CommonRuleEvaluator {
                 // @todo 1.15 ore dictionary?
 //                int oreId = OreDictionary.getOreID(blockname.substring(4));
 //                return (world, pos) -> isMatchingOreDict(oreId, world.getBlockState(pos).getBlock());
-                return (world, pos) -> false;
+                return (ctx, pos) -> false;
             } else {
                 if (!ForgeRegistries.BLOCKS.containsKey(new ResourceLocation(blockname))) {
                     ErrorHandler.error("Block '" + blockname + "' is not valid!");
                     return null;
                 }
                 Block block = ForgeRegistries.BLOCKS.getValue(new ResourceLocation(blockname));
-                return (world, pos) -> testBlockStateSafe(world, pos, block);
+                return (ctx, pos) -> testBlockStateSafe(ctx, pos, block);
             }
         } else if (element.isJsonObject()) {
             JsonObject obj = element.getAsJsonObject();
-            BiPredicate<IWorld, BlockPos> test;
+            BiPredicate<EventContext, BlockPos> test;
             if (obj.has("ore")) {
                 // @todo 1.15 ore dictionary?
 //                int oreId = OreDictionary.getOreID(obj.get("ore").getAsString());
 //                test = (world, pos) -> isMatchingOreDict(oreId, world.getBlockState(pos).getBlock());
-                test = (world, pos) -> false;
+                test = (ctx, pos) -> false;
             } else if (obj.has("block")) {
                 String blockname = obj.get("block").getAsString();
                 if (!ForgeRegistries.BLOCKS.containsKey(new ResourceLocation(blockname))) {
@@ -347,21 +375,21 @@ public class CommonRuleEvaluator {
                         }
                     }
                     BlockState finalBlockState = blockState;
-                    test = (world, pos) -> testBlockStateSafe(world, pos, finalBlockState);
+                    test = (ctx, pos) -> testBlockStateSafe(ctx, pos, finalBlockState);
                 } else {
-                    test = (world, pos) -> testBlockStateSafe(world, pos, block);
+                    test = (ctx, pos) -> testBlockStateSafe(ctx, pos, block);
                 }
             } else {
-                test = (world, pos) -> true;
+                test = (ctx, pos) -> true;
             }
 
             if (obj.has("mod")) {
                 String mod = obj.get("mod").getAsString();
-                BiPredicate<IWorld, BlockPos> finalTest = test;
-                test = (world, pos) -> {
-                    Chunk chunk = world.getChunkSource().getChunkNow(pos.getX() >> 4, pos.getZ() >> 4);
-                    if (chunk != null) {
-                        return finalTest.test(world, pos) && mod.equals(world.getBlockState(pos).getBlock().getRegistryName().getNamespace());
+                BiPredicate<EventContext, BlockPos> finalTest = test;
+                test = (ctx, pos) -> {
+                    BlockState state = ctx.getLoadedBlockState(pos);
+                    if (state != null) {
+                        return finalTest.test(ctx, pos) && mod.equals(state.getBlock().getRegistryName().getNamespace());
                     } else {
                         return false;
                     }
@@ -376,8 +404,8 @@ public class CommonRuleEvaluator {
                     } else {
                         side = null;
                     }
-                    BiPredicate<IWorld, BlockPos> finalTest = test;
-                    test = (world, pos) -> finalTest.test(world, pos) && energy.test(getEnergy(world, pos, side));
+                    BiPredicate<EventContext, BlockPos> finalTest = test;
+                    test = (ctx, pos) -> finalTest.test(ctx, pos) && energy.test(getEnergy(ctx.getWorld(), pos, side));
                 }
             }
             if (obj.has("contains")) {
@@ -388,8 +416,8 @@ public class CommonRuleEvaluator {
                     side = null;
                 }
                 List<Predicate<ItemStack>> items = getItems(obj.get("contains"));
-                BiPredicate<IWorld, BlockPos> finalTest = test;
-                test = (world, pos) -> finalTest.test(world, pos) && contains(world, pos, side, items);
+                BiPredicate<EventContext, BlockPos> finalTest = test;
+                test = (ctx, pos) -> finalTest.test(ctx, pos) && contains(ctx.getWorld(), pos, side, items);
             }
 
             return test;
@@ -430,39 +458,38 @@ public class CommonRuleEvaluator {
 
     private void addBlocksCheck(AttributeMap map, List<String> blocks) {
 
-        BiFunction<Object, IEventQuery, BlockPos> posFunction;
+        Function<EventContext, BlockPos> posFunction;
         String bo = map.consumeAndFetch(BLOCKOFFSET);
         if (bo != null) {
             posFunction = parseOffset(map.get(BLOCKOFFSET));
         } else {
-            posFunction = (event, query) -> query.getValidBlockPos(event);
+            posFunction = ctx -> ctx.getValidBlockPos();
         }
 
         if (blocks.size() == 1) {
             String json = blocks.get(0);
-            BiPredicate<IWorld, BlockPos> blockMatcher = parseBlock(json);
+            BiPredicate<EventContext, BlockPos> blockMatcher = parseBlock(json);
             if (blockMatcher != null) {
-                checks.add((event, query) -> {
-                    BlockPos pos = posFunction.apply(event, query);
-                    return pos != null && blockMatcher.test(query.getWorld(event), pos);
+                checks.add(ctx -> {
+                    BlockPos pos = posFunction.apply(ctx);
+                    return pos != null && blockMatcher.test(ctx, pos);
                 });
             }
         } else {
-            List<BiPredicate<IWorld, BlockPos>> blockMatchers = new ArrayList<>();
+            List<BiPredicate<EventContext, BlockPos>> blockMatchers = new ArrayList<>();
             for (String block : blocks) {
-                BiPredicate<IWorld, BlockPos> blockMatcher = parseBlock(block);
+                BiPredicate<EventContext, BlockPos> blockMatcher = parseBlock(block);
                 if (blockMatcher == null) {
                     return;
                 }
                 blockMatchers.add(blockMatcher);
             }
 
-            checks.add((event,query) -> {
-                BlockPos pos = posFunction.apply(event, query);
+            checks.add(ctx -> {
+                BlockPos pos = posFunction.apply(ctx);
                 if (pos != null) {
-                    IWorld world = query.getWorld(event);
-                    for (BiPredicate<IWorld, BlockPos> matcher : blockMatchers) {
-                        if (matcher.test(world, pos)) {
+                    for (BiPredicate<EventContext, BlockPos> matcher : blockMatchers) {
+                        if (matcher.test(ctx, pos)) {
                             return true;
                         }
                     }
@@ -485,8 +512,8 @@ public class CommonRuleEvaluator {
 
 
     private void addMinTimeCheck(int mintime) {
-        checks.add((event,query) -> {
-            IWorld world = query.getWorld(event);
+        checks.add(ctx -> {
+            IWorld world = ctx.getWorld();
             if (world instanceof World) {
                 long time = ((World)world).getDayTime();
                 return (time % 24000) >= mintime;
@@ -497,8 +524,8 @@ public class CommonRuleEvaluator {
     }
 
     private void addMaxTimeCheck(int maxtime) {
-        checks.add((event,query) -> {
-            IWorld world = query.getWorld(event);
+        checks.add(ctx -> {
+            IWorld world = ctx.getWorld();
             if (world instanceof World) {
                 long time = ((World)world).getDayTime();
                 return (time % 24000) <= maxtime;
@@ -510,9 +537,9 @@ public class CommonRuleEvaluator {
 
     private void addMinSpawnDistCheck(float v) {
         final float d = v * v;
-        checks.add((event,query) -> {
-            BlockPos pos = query.getPos(event);
-            ServerWorld sw = Tools.getServerWorld(query.getWorld(event));
+        checks.add(ctx -> {
+            BlockPos pos = ctx.getPos();
+            ServerWorld sw = Tools.getServerWorld(ctx.getWorld());
             double sqdist = pos.distSqr(sw.getSharedSpawnPos());
             return sqdist >= d;
         });
@@ -520,9 +547,9 @@ public class CommonRuleEvaluator {
 
     private void addMaxSpawnDistCheck(float v) {
         final float d = v * v;
-        checks.add((event,query) -> {
-            BlockPos pos = query.getPos(event);
-            ServerWorld sw = Tools.getServerWorld(query.getWorld(event));
+        checks.add(ctx -> {
+            BlockPos pos = ctx.getPos();
+            ServerWorld sw = Tools.getServerWorld(ctx.getWorld());
             double sqdist = pos.distSqr(sw.getSharedSpawnPos());
             return sqdist <= d;
         });
@@ -530,43 +557,40 @@ public class CommonRuleEvaluator {
 
 
     private void addMinLightCheck(int minlight) {
-        checks.add((event,query) -> {
-            BlockPos pos = query.getPos(event);
-            return query.getWorld(event).getMaxLocalRawBrightness(pos) >= minlight;
+        checks.add(ctx -> {
+            return ctx.getLight() >= minlight;
         });
     }
 
     private void addMaxLightCheck(int maxlight) {
-        checks.add((event,query) -> {
-            BlockPos pos = query.getPos(event);
-            return query.getWorld(event).getMaxLocalRawBrightness(pos) <= maxlight;
+        checks.add(ctx -> {
+            return ctx.getLight() <= maxlight;
         });
     }
 
     private void addMinAdditionalDifficultyCheck(Float mindifficulty) {
-        checks.add((event,query) -> query.getWorld(event).getCurrentDifficultyAt(query.getPos(event)).getEffectiveDifficulty() >= mindifficulty);
+        checks.add(ctx -> ctx.getWorld().getCurrentDifficultyAt(ctx.getPos()).getEffectiveDifficulty() >= mindifficulty);
     }
 
     private void addMaxAdditionalDifficultyCheck(Float maxdifficulty) {
-        checks.add((event,query) -> query.getWorld(event).getCurrentDifficultyAt(query.getPos(event)).getEffectiveDifficulty() <= maxdifficulty);
+        checks.add(ctx -> ctx.getWorld().getCurrentDifficultyAt(ctx.getPos()).getEffectiveDifficulty() <= maxdifficulty);
     }
 
     private void addMaxHeightCheck(int maxheight) {
-        checks.add((event,query) -> query.getY(event) <= maxheight);
+        checks.add(ctx -> ctx.getY() <= maxheight);
     }
 
     private void addMinHeightCheck(int minheight) {
-        checks.add((event,query) -> query.getY(event) >= minheight);
+        checks.add(ctx -> ctx.getY() >= minheight);
     }
 
 
     public boolean match(Object event, IEventQuery query) {
-        for (BiFunction<Object, IEventQuery, Boolean> rule : checks) {
-            if (!rule.apply(event, query)) {
-                return false;
-            }
-        }
-        return true;
+        return compiled.test(new EventContext(event, query));
+    }
+
+    public boolean match(EventContext ctx) {
+        return compiled.test(ctx);
     }
 
     private static Predicate<Integer> getExpression(String expression, Logger logger) {
@@ -818,8 +842,8 @@ public class CommonRuleEvaluator {
     }
 
     private void addArmorCheck(List<Predicate<ItemStack>> items, EquipmentSlotType slot) {
-        checks.add((event,query) -> {
-            PlayerEntity player = query.getPlayer(event);
+        checks.add(ctx -> {
+            PlayerEntity player = ctx.getPlayer();
             if (player != null) {
                 ItemStack armorItem = player.getItemBySlot(slot);
                 if (!armorItem.isEmpty()) {
@@ -836,8 +860,8 @@ public class CommonRuleEvaluator {
 
     public void addHeldItemCheck(List<String> itemList) {
         List<Predicate<ItemStack>> items = getItems(itemList, logger);
-        checks.add((event,query) -> {
-            PlayerEntity player = query.getPlayer(event);
+        checks.add(ctx -> {
+            PlayerEntity player = ctx.getPlayer();
             if (player != null) {
                 ItemStack mainhand = player.getMainHandItem();
                 if (!mainhand.isEmpty()) {
@@ -854,8 +878,8 @@ public class CommonRuleEvaluator {
 
     public void addOffHandItemCheck(List<String> itemList) {
         List<Predicate<ItemStack>> items = getItems(itemList, logger);
-        checks.add((event,query) -> {
-            PlayerEntity player = query.getPlayer(event);
+        checks.add(ctx -> {
+            PlayerEntity player = ctx.getPlayer();
             if (player != null) {
                 ItemStack offhand = player.getOffhandItem();
                 if (!offhand.isEmpty()) {
@@ -872,8 +896,8 @@ public class CommonRuleEvaluator {
 
     public void addBothHandsItemCheck(List<String> itemList) {
         List<Predicate<ItemStack>> items = getItems(itemList, logger);
-        checks.add((event,query) -> {
-            PlayerEntity player = query.getPlayer(event);
+        checks.add(ctx -> {
+            PlayerEntity player = ctx.getPlayer();
             if (player != null) {
                 ItemStack offhand = player.getOffhandItem();
                 if (!offhand.isEmpty()) {
@@ -912,7 +936,7 @@ public class CommonRuleEvaluator {
             return;
         }
 
-        checks.add((event, query) -> value.equals(compatibility.getState(query.getWorld(event), state)));
+        checks.add(ctx -> value.equals(compatibility.getState(ctx.getWorld(), state)));
     }
 
     private void addPStateCheck(String s) {
@@ -931,7 +955,7 @@ public class CommonRuleEvaluator {
             return;
         }
 
-        checks.add((event, query) -> value.equals(compatibility.getPlayerState(query.getPlayer(event), state)));
+        checks.add(ctx -> value.equals(compatibility.getPlayerState(ctx.getPlayer(), state)));
     }
 
     private void addSummerCheck(Boolean s) {
@@ -939,7 +963,7 @@ public class CommonRuleEvaluator {
             logger.warn("Serene Seasons is missing: this test cannot work!");
             return;
         }
-        checks.add((event, query) -> s == compatibility.isSummer(query.getWorld(event)));
+        checks.add(ctx -> s == compatibility.isSummer(ctx.getWorld()));
     }
 
     private void addWinterCheck(Boolean s) {
@@ -947,7 +971,7 @@ public class CommonRuleEvaluator {
             logger.warn("Serene Seasons is missing: this test cannot work!");
             return;
         }
-        checks.add((event, query) -> s == compatibility.isWinter(query.getWorld(event)));
+        checks.add(ctx -> s == compatibility.isWinter(ctx.getWorld()));
     }
 
     private void addSpringCheck(Boolean s) {
@@ -955,7 +979,7 @@ public class CommonRuleEvaluator {
             logger.warn("Serene Seasons is missing: this test cannot work!");
             return;
         }
-        checks.add((event, query) -> s == compatibility.isSpring(query.getWorld(event)));
+        checks.add(ctx -> s == compatibility.isSpring(ctx.getWorld()));
     }
 
     private void addAutumnCheck(Boolean s) {
@@ -963,7 +987,7 @@ public class CommonRuleEvaluator {
             logger.warn("Serene Seasons is missing: this test cannot work!");
             return;
         }
-        checks.add((event, query) -> s == compatibility.isAutumn(query.getWorld(event)));
+        checks.add(ctx -> s == compatibility.isAutumn(ctx.getWorld()));
     }
 
     private void addGameStageCheck(String stage) {
@@ -971,7 +995,7 @@ public class CommonRuleEvaluator {
             logger.warn("Game Stages is missing: the 'gamestage' test cannot work!");
             return;
         }
-        checks.add((event, query) -> compatibility.hasGameStage(query.getPlayer(event), stage));
+        checks.add(ctx -> compatibility.hasGameStage(ctx.getPlayer(), stage));
     }
 
     private void addInCityCheck(boolean incity) {
@@ -980,9 +1004,9 @@ public class CommonRuleEvaluator {
             return;
         }
         if (incity) {
-            checks.add((event,query) -> compatibility.isCity(query, event));
+            checks.add(ctx -> compatibility.isCity(ctx.getQuery(), ctx.getEvent()));
         } else {
-            checks.add((event,query) -> !compatibility.isCity(query, event));
+            checks.add(ctx -> !compatibility.isCity(ctx.getQuery(), ctx.getEvent()));
         }
     }
 
@@ -992,9 +1016,9 @@ public class CommonRuleEvaluator {
             return;
         }
         if (instreet) {
-            checks.add((event,query) -> compatibility.isStreet(query, event));
+            checks.add(ctx -> compatibility.isStreet(ctx.getQuery(), ctx.getEvent()));
         } else {
-            checks.add((event,query) -> !compatibility.isStreet(query, event));
+            checks.add(ctx -> !compatibility.isStreet(ctx.getQuery(), ctx.getEvent()));
         }
     }
 
@@ -1004,9 +1028,9 @@ public class CommonRuleEvaluator {
             return;
         }
         if (insphere) {
-            checks.add((event,query) -> compatibility.inSphere(query, event));
+            checks.add(ctx -> compatibility.inSphere(ctx.getQuery(), ctx.getEvent()));
         } else {
-            checks.add((event,query) -> !compatibility.inSphere(query, event));
+            checks.add(ctx -> !compatibility.inSphere(ctx.getQuery(), ctx.getEvent()));
         }
     }
 
@@ -1016,9 +1040,9 @@ public class CommonRuleEvaluator {
             return;
         }
         if (inbuilding) {
-            checks.add((event,query) -> compatibility.isBuilding(query, event));
+            checks.add(ctx -> compatibility.isBuilding(ctx.getQuery(), ctx.getEvent()));
         } else {
-            checks.add((event,query) -> !compatibility.isBuilding(query, event));
+            checks.add(ctx -> !compatibility.isBuilding(ctx.getQuery(), ctx.getEvent()));
         }
     }
 
@@ -1029,8 +1053,8 @@ public class CommonRuleEvaluator {
         }
 
         List<Predicate<ItemStack>> items = getItems(itemList, logger);
-        checks.add((event,query) -> {
-            PlayerEntity player = query.getPlayer(event);
+        checks.add(ctx -> {
+            PlayerEntity player = ctx.getPlayer();
             if (player != null) {
                 for (int slot : slotSupplier.get()) {
                     ItemStack stack = compatibility.getBaubleStack(player, slot);
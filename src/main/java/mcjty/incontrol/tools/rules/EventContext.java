@@ -0,0 +1,156 @@
+package mcjty.incontrol.tools.rules;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.DamageSource;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.biome.Biome;
+
+import javax.annotation.Nullable;
+
+/**
+ * Everything the checks of a rule need to know about an event. Values are fetched
+ * from the IEventQuery the first time they are asked for and then remembered so
+ * that the checks don't have to go back to the event (and allocate new positions)
+ * over and over. A single context can be shared by all rules that look at the same
+ * event so that expensive facts (biome, light, nearest player, blocks) are only
+ * computed once per event
+ */
+@SuppressWarnings("unchecked")
+public class EventContext {
+
+    private final Object event;
+    private final IEventQuery query;
+
+    private IWorld world;
+    private BlockPos pos;
+    private BlockPos validBlockPos;
+    private boolean hasY = false;
+    private int y;
+    private boolean hasEntity = false;
+    private Entity entity;
+    private boolean hasPlayer = false;
+    private PlayerEntity player;
+    private boolean hasSource = false;
+    private DamageSource source;
+    private boolean hasAttacker = false;
+    private Entity attacker;
+    private ItemStack item;
+    private Biome biome;
+    private int light = -1;
+    private BlockPos blockStatePos;
+    private BlockState blockState;
+
+    public EventContext(Object event, IEventQuery query) {
+        this.event = event;
+        this.query = query;
+    }
+
+    public Object getEvent() {
+        return event;
+    }
+
+    public IEventQuery getQuery() {
+        return query;
+    }
+
+    public IWorld getWorld() {
+        if (world == null) {
+            world = query.getWorld(event);
+        }
+        return world;
+    }
+
+    public BlockPos getPos() {
+        if (pos == null) {
+            pos = query.getPos(event);
+        }
+        return pos;
+    }
+
+    public BlockPos getValidBlockPos() {
+        if (validBlockPos == null) {
+            validBlockPos = query.getValidBlockPos(event);
+        }
+        return validBlockPos;
+    }
+
+    public int getY() {
+        if (!hasY) {
+            y = query.getY(event);
+            hasY = true;
+        }
+        return y;
+    }
+
+    public Entity getEntity() {
+        if (!hasEntity) {
+            entity = query.getEntity(event);
+            hasEntity = true;
+        }
+        return entity;
+    }
+
+    public PlayerEntity getPlayer() {
+        if (!hasPlayer) {
+            player = query.getPlayer(event);
+            hasPlayer = true;
+        }
+        return player;
+    }
+
+    public DamageSource getSource() {
+        if (!hasSource) {
+            source = query.getSource(event);
+            hasSource = true;
+        }
+        return source;
+    }
+
+    public Entity getAttacker() {
+        if (!hasAttacker) {
+            attacker = query.getAttacker(event);
+            hasAttacker = true;
+        }
+        return attacker;
+    }
+
+    public ItemStack getItem() {
+        if (item == null) {
+            item = query.getItem(event);
+        }
+        return item;
+    }
+
+    public Biome getBiome() {
+        if (biome == null) {
+            biome = getWorld().getBiome(getPos());
+        }
+        return biome;
+    }
+
+    public int getLight() {
+        if (light == -1) {
+            light = getWorld().getMaxLocalRawBrightness(getPos());
+        }
+        return light;
+    }
+
+    /// Get the blockstate at a position or null if that chunk is not loaded. The last lookup is remembered
+    @Nullable
+    public BlockState getLoadedBlockState(BlockPos p) {
+        if (!p.equals(blockStatePos)) {
+            blockStatePos = p.immutable();
+            IWorld w = getWorld();
+            if (w.getChunkSource().getChunkNow(p.getX() >> 4, p.getZ() >> 4) != null) {
+                blockState = w.getBlockState(p);
+            } else {
+                blockState = null;
+            }
+        }
+        return blockState;
+    }
+}
@@ -0,0 +1,30 @@
+package mcjty.incontrol.tools.rules;
+
+/**
+ * A single compiled condition of a rule
+ */
+@FunctionalInterface
+public interface ICheck {
+
+    boolean test(EventContext ctx);
+
+    /// Order sensitive checks (like random) are never moved by the adaptive ordering and
+    /// other checks are never moved across them
+    default boolean isOrderSensitive() {
+        return false;
+    }
+
+    static ICheck orderSensitive(ICheck check) {
+        return new ICheck() {
+            @Override
+            public boolean test(EventContext ctx) {
+                return check.test(ctx);
+            }
+
+            @Override
+            public boolean isOrderSensitive() {
+                return true;
+            }
+        };
+    }
+}
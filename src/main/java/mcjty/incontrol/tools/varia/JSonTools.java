@@ -7,6 +7,7 @@ import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
@@ -28,26 +29,22 @@ public class JSonTools {
         }
 
         logger.log(Level.INFO, "Reading rules from " + filename);
-        InputStream inputstream = null;
-        try {
-            inputstream = new FileInputStream(file);
-        } catch (FileNotFoundException e) {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            JsonParser parser = new JsonParser();
+            return parser.parse(br);
+        } catch (IOException e) {
             logger.log(Level.ERROR, "Error reading " + filename + "!");
             return null;
         }
+    }
 
-        BufferedReader br;
-        try {
-            br = new BufferedReader(new InputStreamReader(inputstream, "UTF-8"));
-        } catch (UnsupportedEncodingException e) {
-            logger.log(Level.ERROR, "Error reading " + filename + "!");
-            return null;
+    // Get a rule file in the incontrol config directory. An empty rule file is created if it doesn't exist yet
+    public static File getRuleFile(String path, String filename, Logger logger) {
+        File file = new File(path + File.separator + "incontrol", filename);
+        if (!file.exists()) {
+            makeEmptyRuleFile(file, logger);
         }
-
-        JsonParser parser = new JsonParser();
-        JsonElement element = parser.parse(br);
-
-        return element;
+        return file;
     }
 
     private static void makeEmptyRuleFile(File file, Logger logger) {
@@ -0,0 +1,82 @@
+package mcjty.incontrol.rules;
+
+import com.google.gson.JsonElement;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RuleCategoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String write(String filename, String... lines) throws IOException {
+        File directory = new File(folder.getRoot(), "incontrol");
+        directory.mkdirs();
+        Files.write(new File(directory, filename).toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return folder.getRoot().getPath();
+    }
+
+    // Read the file and create its rules like RulesManager does (but on one thread)
+    private static RuleCategory<String> load(String path, RuleCategory<String> previous, List<JsonElement> entries, IntList reused) {
+        RuleCategory.Builder<String> builder = new RuleCategory.Builder<>(previous, e -> e.getAsJsonObject().get("name").getAsString());
+        RuleFile file = RuleFile.load(path, "test.json", previous, (location, entry, key) -> {
+            entries.add(entry);
+            builder.add(location, entry, key);
+        });
+        reused.addAll(builder.getReused());
+        return file.isUnchanged() ? previous : builder.build(file.getHash());
+    }
+
+    @Test
+    public void unchangedFileKeepsItsRules() throws IOException {
+        String path = write("test.json", "[ { \"name\": \"a\" } ]");
+        RuleCategory<String> category = load(path, RuleCategory.empty(), new ArrayList<>(), new IntArrayList());
+        assertNotNull(category.getHash());
+
+        List<JsonElement> entries = new ArrayList<>();
+        assertSame(category, load(path, category, entries, new IntArrayList()));
+        // Nothing has to be parsed again
+        assertEquals(Collections.singletonList(null), entries);
+
+        write("test.json", "[ { \"name\": \"b\" } ]");
+        RuleCategory<String> changed = load(path, category, new ArrayList<>(), new IntArrayList());
+        assertNotEquals(category.getHash(), changed.getHash());
+        assertEquals(Collections.singletonList("b"), changed.getRules());
+    }
+
+    @Test
+    public void unchangedRulesAreReused() throws IOException {
+        String path = write("test.json", "[ { \"name\": \"a\" }, { \"name\": \"b\" }, { \"name\": \"a\" } ]");
+        RuleCategory<String> first = load(path, RuleCategory.empty(), new ArrayList<>(), new IntArrayList());
+        assertEquals(Arrays.asList("a", "b", "a"), first.getRules());
+
+        // 'b' is gone, one 'a' moved and 'c' is new. Whitespace doesn't matter for reuse
+        write("test.json", "[ { \"name\": \"c\" }, {\"name\":\"a\"}, { \"name\": \"a\" } ]");
+        List<JsonElement> entries = new ArrayList<>();
+        IntList reused = new IntArrayList();
+        RuleCategory<String> second = load(path, first, entries, reused);
+        assertNotNull(entries.get(0));
+        assertNull(entries.get(1));
+        assertNull(entries.get(2));
+
+        assertEquals(Arrays.asList("c", "a", "a"), second.getRules());
+        assertEquals(IntArrayList.wrap(new int[] { -1, 0, 2 }), reused);
+        // The rule objects themselves are the same
+        assertSame(first.getRules().get(0), second.getRules().get(1));
+        assertSame(first.getRules().get(2), second.getRules().get(2));
+    }
+}
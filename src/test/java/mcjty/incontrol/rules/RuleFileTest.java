@@ -0,0 +1,95 @@
+package mcjty.incontrol.rules;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RuleFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String write(String filename, String... lines) throws IOException {
+        File directory = new File(folder.getRoot(), "incontrol");
+        directory.mkdirs();
+        Files.write(new File(directory, filename).toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return folder.getRoot().getPath();
+    }
+
+    @Test
+    public void locationsPointAtTheStartOfEveryRule() throws IOException {
+        String path = write("test.json",
+                "[",
+                "  { \"name\": \"a\" },",
+                "",
+                "      {",
+                "        \"name\": \"b\"",
+                "      }, { \"name\": \"c\" }",
+                "]");
+        List<String> locations = new ArrayList<>();
+        RuleFile.load(path, "test.json", RuleCategory.empty(), (location, entry, key) -> locations.add(location));
+        assertEquals(Arrays.asList("test.json:2:3", "test.json:4:7", "test.json:6:10"), locations);
+    }
+
+    @Test
+    public void errorsReportTheirLocation() throws IOException {
+        String path = write("test.json",
+                "[",
+                "  { \"name\": \"a\" },",
+                "  { \"name\": }",
+                "]");
+        try {
+            RuleFile.load(path, "test.json", RuleCategory.empty(), (location, entry, key) -> {});
+            fail();
+        } catch (JsonParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("test.json:3:13: "));
+        }
+    }
+
+    @Test
+    public void emptyFileHasNoRules() throws IOException {
+        String path = write("test.json", "");
+        List<JsonElement> entries = new ArrayList<>();
+        RuleFile.load(path, "test.json", RuleCategory.empty(), (location, entry, key) -> entries.add(entry));
+        assertTrue(entries.isEmpty());
+    }
+
+    @Test
+    public void commentsAndStringsDontEndARule() throws IOException {
+        String path = write("test.json",
+                "// Rules for testing",
+                "[",
+                "  { \"name\": \"a}]\" }, /* { \"name\": \"x\" } */",
+                "  # Braces in a comment: }",
+                "  { \"name\": \"b\\\"}\" }",
+                "]");
+        List<String> names = new ArrayList<>();
+        RuleFile.load(path, "test.json", RuleCategory.empty(), (location, entry, key) -> names.add(entry.getAsJsonObject().get("name").getAsString()));
+        assertEquals(Arrays.asList("a}]", "b\"}"), names);
+    }
+
+    @Test
+    public void unterminatedRuleIsAnError() throws IOException {
+        String path = write("test.json",
+                "[",
+                "  { \"name\": \"a\" ");
+        try {
+            RuleFile.load(path, "test.json", RuleCategory.empty(), (location, entry, key) -> {});
+            fail();
+        } catch (JsonParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("test.json:2:"));
+        }
+    }
+}
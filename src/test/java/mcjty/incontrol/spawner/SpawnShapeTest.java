@@ -0,0 +1,111 @@
+package mcjty.incontrol.spawner;
+
+import net.minecraft.util.math.BlockPos;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpawnShapeTest {
+
+    private static final int SAMPLES = 20000;
+    // Positions are rounded down to whole blocks horizontally
+    private static final double ROUNDING = Math.sqrt(2);
+
+    private static double distance(BlockPos a, BlockPos b) {
+        return Math.sqrt(a.distSqr(b));
+    }
+
+    private static double horizontalDistance(BlockPos a, BlockPos b) {
+        double dx = a.getX() - b.getX();
+        double dz = a.getZ() - b.getZ();
+        return Math.sqrt(dx * dx + dz * dz);
+    }
+
+    @Test
+    public void sphereStaysBetweenMinAndMaxDistance() {
+        SpawnerConditions conditions = SpawnerConditions.create().distance(10, 30).height(1, 256).build();
+        BlockPos center = new BlockPos(100, 64, -40);
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            BlockPos pos = SpawnShape.SPHERE.sample(center, conditions, random);
+            assertNotNull(pos);
+            double d = distance(pos, center);
+            assertTrue("Too close: " + d, d >= 10 - ROUNDING);
+            assertTrue("Too far: " + d, d <= 30 + ROUNDING);
+        }
+    }
+
+    @Test
+    public void sphereIsUniformOverTheVolume() {
+        int mindist = 10;
+        int maxdist = 30;
+        SpawnerConditions conditions = SpawnerConditions.create().distance(mindist, maxdist).height(1, 256).build();
+        BlockPos center = new BlockPos(0, 128, 0);
+        Random random = new Random(2);
+        // Half of the volume of the shell is closer than this
+        double half = Math.cbrt(((double) mindist * mindist * mindist + (double) maxdist * maxdist * maxdist) / 2);
+        int inside = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (distance(SpawnShape.SPHERE.sample(center, conditions, random), center) < half) {
+                inside++;
+            }
+        }
+        assertEquals(0.5, (double) inside / SAMPLES, 0.03);
+    }
+
+    @Test
+    public void sphereRespectsHeightLimits() {
+        SpawnerConditions conditions = SpawnerConditions.create().distance(0, 40).height(60, 70).build();
+        BlockPos center = new BlockPos(0, 64, 0);
+        Random random = new Random(3);
+        for (int i = 0; i < SAMPLES; i++) {
+            BlockPos pos = SpawnShape.SPHERE.sample(center, conditions, random);
+            assertNotNull(pos);
+            assertTrue(pos.getY() >= 60 && pos.getY() <= 70);
+        }
+    }
+
+    @Test
+    public void noPositionsOutsideHeightLimits() {
+        SpawnerConditions conditions = SpawnerConditions.create().distance(0, 20).height(200, 256).build();
+        BlockPos center = new BlockPos(0, 64, 0);
+        Random random = new Random(4);
+        assertNull(SpawnShape.SPHERE.sample(center, conditions, random));
+        assertNull(SpawnShape.RING.sample(center, conditions, random));
+    }
+
+    @Test
+    public void ringStaysBetweenMinAndMaxDistance() {
+        SpawnerConditions conditions = SpawnerConditions.create().distance(16, 24).height(1, 256).shape(SpawnShape.RING).build();
+        BlockPos center = new BlockPos(-7, 80, 13);
+        Random random = new Random(5);
+        for (int i = 0; i < SAMPLES; i++) {
+            BlockPos pos = SpawnShape.RING.sample(center, conditions, random);
+            assertNotNull(pos);
+            double d = horizontalDistance(pos, center);
+            assertTrue("Too close: " + d, d >= 16 - ROUNDING);
+            assertTrue("Too far: " + d, d <= 24 + ROUNDING);
+            assertTrue(Math.abs(pos.getY() - center.getY()) <= 24);
+        }
+    }
+
+    @Test
+    public void ringIsUniformOverTheArea() {
+        int mindist = 16;
+        int maxdist = 48;
+        SpawnerConditions conditions = SpawnerConditions.create().distance(mindist, maxdist).height(1, 256).build();
+        BlockPos center = new BlockPos(0, 128, 0);
+        Random random = new Random(6);
+        // Half of the area of the ring is closer than this
+        double half = Math.sqrt(((double) mindist * mindist + (double) maxdist * maxdist) / 2);
+        int inside = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (horizontalDistance(SpawnShape.RING.sample(center, conditions, random), center) < half) {
+                inside++;
+            }
+        }
+        assertEquals(0.5, (double) inside / SAMPLES, 0.03);
+    }
+}
@@ -0,0 +1,121 @@
+package mcjty.incontrol.spawner;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpawnerSchedulerTest {
+
+    private static SpawnerRule rule(int interval, int offset) {
+        return SpawnerRule.create().interval(interval).offset(offset).build();
+    }
+
+    // For every tick the indices of the rules that were executed in that tick (without budget)
+    private static List<IntList> run(SpawnerScheduler scheduler, int ticks) {
+        List<IntList> executed = new ArrayList<>();
+        for (int t = 0; t < ticks; t++) {
+            IntList list = new IntArrayList();
+            scheduler.tick();
+            scheduler.execute(0, list::add);
+            executed.add(list);
+        }
+        return executed;
+    }
+
+    private static IntList ticksOf(List<IntList> executed, int index) {
+        IntList ticks = new IntArrayList();
+        for (int t = 0; t < executed.size(); t++) {
+            if (executed.get(t).contains(index)) {
+                ticks.add(t);
+            }
+        }
+        return ticks;
+    }
+
+    @Test
+    public void ruleRunsAtItsOffsetEveryInterval() {
+        SpawnerScheduler scheduler = new SpawnerScheduler();
+        scheduler.add(rule(20, 5), 0);
+        List<IntList> executed = run(scheduler, 100);
+        assertEquals(IntArrayList.wrap(new int[] { 5, 25, 45, 65, 85 }), ticksOf(executed, 0));
+    }
+
+    @Test
+    public void rulesAreSpreadByIndexByDefault() {
+        SpawnerScheduler scheduler = new SpawnerScheduler();
+        for (int i = 0; i < 4; i++) {
+            scheduler.add(rule(4, -1), i);
+        }
+        List<IntList> executed = run(scheduler, 12);
+        for (int t = 0; t < 12; t++) {
+            assertEquals(IntArrayList.wrap(new int[] { t % 4 }), executed.get(t));
+        }
+    }
+
+    @Test
+    public void intervalsLongerThanTheWheel() {
+        SpawnerScheduler scheduler = new SpawnerScheduler();
+        scheduler.add(rule(100, 10), 0);
+        scheduler.add(rule(1, 0), 1);
+        List<IntList> executed = run(scheduler, 300);
+        assertEquals(IntArrayList.wrap(new int[] { 10, 110, 210 }), ticksOf(executed, 0));
+        assertEquals(300, ticksOf(executed, 1).size());
+    }
+
+    @Test
+    public void budgetCarriesRulesOverToTheNextTick() {
+        SpawnerScheduler scheduler = new SpawnerScheduler();
+        for (int i = 0; i < 5; i++) {
+            scheduler.add(rule(20, 0), i);
+        }
+        scheduler.tick();
+        IntList executed = new IntArrayList();
+        // A budget of 1ns is always used up after the first rule. At least one rule runs every time
+        for (int i = 0; i < 5; i++) {
+            assertTrue(scheduler.hasWork());
+            int before = executed.size();
+            scheduler.execute(1, executed::add);
+            assertEquals(before + 1, executed.size());
+            scheduler.tick();
+        }
+        assertFalse(scheduler.hasWork());
+        int[] rules = executed.toIntArray();
+        Arrays.sort(rules);
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, rules);
+    }
+
+    @Test
+    public void dueRuleIsOnlyQueuedOnce() {
+        SpawnerScheduler scheduler = new SpawnerScheduler();
+        scheduler.add(rule(1, 0), 0);
+        for (int i = 0; i < 5; i++) {
+            scheduler.tick();
+        }
+        IntList executed = new IntArrayList();
+        scheduler.execute(0, executed::add);
+        assertEquals(IntArrayList.wrap(new int[] { 0 }), executed);
+    }
+
+    @Test
+    public void reusedRulesKeepTheirTimingAfterReload() {
+        SpawnerRule kept = rule(20, 15);
+        SpawnerScheduler scheduler = new SpawnerScheduler();
+        scheduler.add(kept, 0);
+        run(scheduler, 10);
+
+        // The kept rule moves to another position but continues where it was
+        SpawnerScheduler reloaded = new SpawnerScheduler(scheduler);
+        reloaded.add(rule(20, 0), 0);
+        reloaded.add(kept, 1);
+        List<IntList> executed = run(reloaded, 40);
+        // Tick 0 of the new run is tick 10 of the old one
+        assertEquals(IntArrayList.wrap(new int[] { 5, 25 }), ticksOf(executed, 1));
+        assertEquals(IntArrayList.wrap(new int[] { 10, 30 }), ticksOf(executed, 0));
+    }
+}
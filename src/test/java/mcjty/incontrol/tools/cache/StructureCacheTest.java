@@ -0,0 +1,73 @@
+package mcjty.incontrol.tools.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StructureCacheTest {
+
+    @Test
+    public void leastRecentlyUsedChunkIsEvicted() {
+        StructureCache.PerDimension cache = new StructureCache().new PerDimension();
+        cache.put(1, StructureCache.NONE, 3);
+        cache.put(2, StructureCache.NONE, 3);
+        cache.put(3, StructureCache.NONE, 3);
+
+        // Using chunk 1 makes chunk 2 the least recently used one
+        assertNotNull(cache.structures.getAndMoveToLast(1));
+        cache.put(4, StructureCache.NONE, 3);
+
+        assertEquals(3, cache.structures.size());
+        assertTrue(cache.structures.containsKey(1));
+        assertFalse(cache.structures.containsKey(2));
+        assertTrue(cache.structures.containsKey(3));
+        assertTrue(cache.structures.containsKey(4));
+    }
+
+    @Test
+    public void putOfAKnownChunkMakesItMostRecent() {
+        StructureCache.PerDimension cache = new StructureCache().new PerDimension();
+        cache.put(1, StructureCache.NONE, 3);
+        cache.put(2, StructureCache.NONE, 3);
+        cache.put(1, StructureCache.NONE, 3);
+        cache.put(3, StructureCache.NONE, 3);
+        cache.put(4, StructureCache.NONE, 3);
+
+        assertEquals(3, cache.structures.size());
+        assertTrue(cache.structures.containsKey(1));
+        assertFalse(cache.structures.containsKey(2));
+    }
+
+    @Test
+    public void putOfAKnownChunkInAFullCacheDoesNotEvict() {
+        StructureCache.PerDimension cache = new StructureCache().new PerDimension();
+        cache.put(1, StructureCache.NONE, 3);
+        cache.put(2, StructureCache.NONE, 3);
+        cache.put(3, StructureCache.NONE, 3);
+        StructureCache.ChunkStructures structures = new StructureCache.ChunkStructures(new String[] { "minecraft:village" }, new long[][] { { 2 } });
+        cache.put(2, structures, 3);
+
+        assertEquals(3, cache.structures.size());
+        assertTrue(cache.structures.containsKey(1));
+        assertSame(structures, cache.structures.get(2));
+        assertTrue(cache.structures.containsKey(3));
+        // Chunk 2 is now the most recently used one
+        cache.put(4, StructureCache.NONE, 3);
+        assertFalse(cache.structures.containsKey(1));
+        assertTrue(cache.structures.containsKey(2));
+    }
+
+    @Test
+    public void smallerLimitShrinksTheCache() {
+        StructureCache.PerDimension cache = new StructureCache().new PerDimension();
+        for (long chunk = 0; chunk < 10; chunk++) {
+            cache.put(chunk, StructureCache.NONE, 10);
+        }
+        cache.put(10, StructureCache.NONE, 4);
+
+        assertEquals(4, cache.structures.size());
+        for (long chunk = 7; chunk <= 10; chunk++) {
+            assertTrue(cache.structures.containsKey(chunk));
+        }
+    }
+}
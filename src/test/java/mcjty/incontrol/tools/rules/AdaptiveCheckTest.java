@@ -0,0 +1,91 @@
+package mcjty.incontrol.tools.rules;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveCheckTest {
+
+    // Enough evaluations to get several reorders (one every SAMPLE_RATE * SAMPLES_PER_REORDER evaluations on average)
+    private static final int EVALUATIONS = 200000;
+
+    private static ICheck counting(AtomicInteger counter, boolean result) {
+        return ctx -> {
+            counter.incrementAndGet();
+            return result;
+        };
+    }
+
+    @Test
+    public void resultDoesNotDependOnOrder() {
+        AdaptiveCheck allPass = new AdaptiveCheck(Arrays.asList(ctx -> true, ctx -> true, ctx -> true));
+        AdaptiveCheck oneFails = new AdaptiveCheck(Arrays.asList(ctx -> true, ctx -> false, ctx -> true));
+        for (int i = 0; i < EVALUATIONS; i++) {
+            assertTrue(allPass.test(null));
+            assertFalse(oneFails.test(null));
+        }
+    }
+
+    @Test
+    public void rejectingCheckMovesToTheFront() {
+        AtomicInteger pass = new AtomicInteger();
+        AtomicInteger reject = new AtomicInteger();
+        AdaptiveCheck check = new AdaptiveCheck(Arrays.asList(counting(pass, true), counting(reject, false)));
+        for (int i = 0; i < EVALUATIONS; i++) {
+            check.test(null);
+        }
+
+        pass.set(0);
+        reject.set(0);
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(check.test(null));
+        }
+        assertEquals(1000, reject.get());
+        assertEquals(0, pass.get());
+    }
+
+    @Test
+    public void checksAreNotMovedAcrossBarriers() {
+        AtomicInteger pass = new AtomicInteger();
+        AtomicInteger barrier = new AtomicInteger();
+        AtomicInteger reject = new AtomicInteger();
+        AdaptiveCheck check = new AdaptiveCheck(Arrays.asList(
+                counting(pass, true),
+                ICheck.orderSensitive(counting(barrier, true)),
+                counting(reject, false)));
+        for (int i = 0; i < EVALUATIONS; i++) {
+            assertFalse(check.test(null));
+        }
+        // The rejecting check is behind the barrier so everything in front of it runs every time
+        assertEquals(EVALUATIONS, pass.get());
+        assertEquals(EVALUATIONS, barrier.get());
+        assertEquals(EVALUATIONS, reject.get());
+    }
+
+    @Test
+    public void checksAreSortedBetweenBarriers() {
+        AtomicInteger barrier = new AtomicInteger();
+        AtomicInteger pass = new AtomicInteger();
+        AtomicInteger reject = new AtomicInteger();
+        AdaptiveCheck check = new AdaptiveCheck(Arrays.asList(
+                ICheck.orderSensitive(counting(barrier, true)),
+                counting(pass, true),
+                counting(reject, false)));
+        for (int i = 0; i < EVALUATIONS; i++) {
+            check.test(null);
+        }
+
+        barrier.set(0);
+        pass.set(0);
+        reject.set(0);
+        for (int i = 0; i < 1000; i++) {
+            check.test(null);
+        }
+        assertEquals(1000, barrier.get());
+        assertEquals(1000, reject.get());
+        assertEquals(0, pass.get());
+    }
+}